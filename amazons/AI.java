@@ -1,7 +1,11 @@
 package amazons;
 
 import static java.lang.Math.*;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static amazons.Piece.*;
 
@@ -12,7 +16,7 @@ class AI extends Player {
 
     /** A position magnitude indicating a win (for white if positive, black
      *  if negative). */
-    private static final int WINNING_VALUE = Integer.MAX_VALUE - 1;
+    static final int WINNING_VALUE = Integer.MAX_VALUE - 1;
     /** A magnitude greater than a normal value. */
     private static final int INFTY = Integer.MAX_VALUE;
     /** Step one for depth search. */
@@ -21,8 +25,9 @@ class AI extends Player {
     private static final int STEP2 = 55;
     /** Step one for depth search. */
     private static final int STEP3 = 75;
-    /** Value for trapping an opponent queen. */
-    private static final int TRAP = 65;
+
+    /** Default size of the transposition table in bytes. */
+    static final long DEFAULT_TABLE_BYTES = 32L << 20;
 
     /** A new AI with no piece or controller (intended to produce
      *  a template). */
@@ -33,100 +38,907 @@ class AI extends Player {
     /** A new AI playing PIECE under control of CONTROLLER. */
     AI(Piece piece, Controller controller) {
         super(piece, controller);
+        _tableBytes = DEFAULT_TABLE_BYTES;
+        _threads = 1;
+        _evaluator = new Territory();
+    }
+
+    /** A new AI playing PIECE under control of CONTROLLER, with the same
+     *  settings as TEMPLATE. */
+    private AI(Piece piece, Controller controller, AI template) {
+        this(piece, controller);
+        _tableBytes = template._tableBytes;
+        _threads = template._threads;
+        _evaluator = template._evaluator;
+        _book = template._book;
+        _statistics = template._statistics;
+        _pondering = template._pondering;
     }
 
     @Override
     Player create(Piece piece, Controller controller) {
-        return new AI(piece, controller);
+        return new AI(piece, controller, this);
+    }
+
+    /** Limit the transposition table of this AI, and of AIs created from
+     *  it, to BYTES bytes. */
+    void setTableSize(long bytes) {
+        _tableBytes = bytes;
+        _workers = null;
+    }
+
+    /** Search with THREADS threads in this AI and AIs created from it.
+     *  With one thread, searches are deterministic. */
+    void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("need at least one thread");
+        }
+        _threads = threads;
+        _workers = null;
+        _pool = null;
+    }
+
+    /** Play moves from BOOK, when it has any, in this AI and AIs created
+     *  from it, without searching.  BOOK may be null. */
+    void setBook(OpeningBook book) {
+        _book = book;
+    }
+
+    /** Evaluate positions with copies of EVALUATOR in this AI and AIs
+     *  created from it. */
+    void setEvaluator(Territory evaluator) {
+        _evaluator = evaluator;
+        _workers = null;
+    }
+
+    /** Iff ON, time the phases of each search (see SearchStats) and
+     *  report the statistics of each search after the move it finds, in
+     *  this AI and AIs created from it. */
+    void setStatistics(boolean on) {
+        _statistics = on;
+    }
+
+    /** Iff ON, go on searching in the background, after each of my moves,
+     *  while my opponent chooses a reply (see ponder), in this AI and AIs
+     *  created from it.  Worthwhile against a person or a remote player;
+     *  against another AI on the same machine, the two searches compete
+     *  for the processors. */
+    void setPondering(boolean on) {
+        _pondering = on;
+    }
+
+    /** Return true iff I am searching in the background (see ponder). */
+    boolean pondering() {
+        return _ponderThread != null && _ponderThread.isAlive();
+    }
+
+    /** Return the statistics of the last search (not counting searches in
+     *  the background). */
+    SearchStats stats() {
+        return _lastStats == null ? new SearchStats() : _lastStats;
+    }
+
+    /** Return the statistics of the search my workers did last, whether
+     *  on my own time or in the background. */
+    private SearchStats workerStats() {
+        SearchStats stats = new SearchStats();
+        if (_workers != null) {
+            for (Worker worker : _workers) {
+                stats.add(worker._stats);
+            }
+        }
+        stats.depth = _searchDepth;
+        stats.elapsedNanos = _searchNanos;
+        stats.branching = _branching;
+        return stats;
+    }
+
+    /** Return the number of nodes in the last search at which a move
+     *  caused a cutoff. */
+    long cutoffCount() {
+        return stats().cutoffs;
+    }
+
+    /** Return the number of the cutoffs counted by cutoffCount that were
+     *  caused by the first move tried.  The ratio of this to cutoffCount
+     *  measures the quality of move ordering. */
+    long firstMoveCutoffCount() {
+        return stats().firstMoveCutoffs;
+    }
+
+    /** Return the number of positions visited by the last search (not
+     *  counting searches in the background). */
+    long nodeCount() {
+        return stats().nodes;
+    }
+
+    /** Return the number of positions my workers have visited in the
+     *  search they are doing or did last. */
+    private long workerNodeCount() {
+        long total = 0;
+        if (_workers == null) {
+            return 0;
+        }
+        for (Worker worker : _workers) {
+            total += worker._stats.nodes;
+        }
+        return total;
+    }
+
+    /** Return the value, for the side to move, of the move found by the
+     *  last search, not counting searches in the background (or
+     *  WINNING_VALUE or -WINNING_VALUE if the game is decided). */
+    int searchScore() {
+        return _lastScore;
+    }
+
+    /** Return the number of positions visited by all searches by this
+     *  AI. */
+    @Override
+    long totalNodeCount() {
+        return _totalNodeCount;
     }
 
     @Override
     String myMove() {
-        Move move = findMove();
-        _lastFoundMove = null;
+        stopPondering();
+        Move move = Move.mv(findMove());
         _controller.reportMove(move);
+        if (_statistics) {
+            _controller.reportNote("stats %s", stats());
+        }
+        if (_pondering) {
+            startPondering(move);
+        }
         return move.toString();
     }
 
-    /** Return a move for me from the current position, assuming there
-     *  is a move. */
-    private Move findMove() {
+    @Override
+    void stop() {
+        stopPondering();
+    }
+
+    /** Start searching, in a background thread, the position my opponent
+     *  faces after I make MOVE in the current position, with no limit but
+     *  the end of the game.  If my search found a best reply, I search the
+     *  position after it, as if for my next move; otherwise I search the
+     *  position my opponent faces.  The search leaves its results in my
+     *  transposition table, where my next search finds them:
+     *  if my opponent makes the reply I expected, the first iterations of
+     *  that search are nearly free, and otherwise it has lost nothing but
+     *  my opponent's time.  Entries that do not help are simply replaced
+     *  in the usual way. */
+    private void startPondering(Move move) {
+        Board position = new Board(board());
+        position.makeMove(move);
+        if (position.winner() != EMPTY) {
+            return;
+        }
+        _ponderMove = expectedReply(position);
+        if (_ponderMove != null) {
+            position.makeMove(_ponderMove);
+            if (position.winner() != EMPTY) {
+                return;
+            }
+        }
+        _cancelled = false;
+        _ponderThread = new Thread(() -> ponder(position), "ponder");
+        _ponderThread.setDaemon(true);
+        _ponderThread.start();
+    }
+
+    /** Return the best move in POSITION recorded in my transposition
+     *  table, or null if there is none. */
+    private Move expectedReply(Board position) {
+        if (_table == null) {
+            return null;
+        }
+        int move = TranspositionTable.move(_table.probe(position.hash()));
+        if (move != NO_MOVE) {
+            Move reply = Move.mv(move);
+            if (position.isLegal(reply)) {
+                return reply;
+            }
+        }
+        return null;
+    }
+
+    /** Return the reply to my last move that I am searching in the
+     *  background (see startPondering), or null if I am searching the
+     *  position my opponent faces or not searching. */
+    Move ponderMove() {
+        return _ponderThread == null ? null : _ponderMove;
+    }
+
+    /** Search POSITION, as for startPondering, until it is decided or
+     *  stopPondering is called.  Unlike findMove, does not touch stats or
+     *  totalNodeCount, which measure work done on my own time. */
+    private void ponder(Board position) {
+        search(position, MAX_DEPTH, NO_LIMIT);
+    }
+
+    /** Stop the search started by startPondering, if any, and wait for it
+     *  to finish, which it does within CHECK_INTERVAL nodes. */
+    private void stopPondering() {
+        if (_ponderThread == null) {
+            return;
+        }
+        _cancelled = true;
+        boolean interrupted = false;
+        while (true) {
+            try {
+                _ponderThread.join();
+                break;
+            } catch (InterruptedException excp) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        _ponderThread = null;
+        _cancelled = false;
+    }
+
+    /** Return the packed code of a move for me from the current position,
+     *  assuming there is a move.  Takes a move from my opening book, if
+     *  it has one, and otherwise searches. */
+    private int findMove() {
         Board b = board();
-        if (_myPiece == WHITE) {
-            findMove(b, maxDepth(b), true, 1, -INFTY, INFTY);
+        if (_book != null) {
+            int move = _book.probe(b, _controller::randInt);
+            if (move != NO_MOVE) {
+                return move;
+            }
+        }
+        long budget = timeBudget(_controller, _myPiece, b);
+        return findMove(b, budget == NO_LIMIT ? maxDepth(b) : MAX_DEPTH,
+                        budget);
+    }
+
+    /** Return the packed code of a move for the side to move on BOARD,
+     *  assuming there is a move.  Searches to successively greater depths,
+     *  up to LIMIT, stopping early if BUDGET milliseconds (unless it is
+     *  NO_LIMIT) run out.  Returns the move found by the deepest search
+     *  that finished, or, if the queens are separated into regions that
+     *  decide the game (see Endgame), the best move without searching.
+     *  BOARD is not changed.  */
+    int findMove(Board board, int limit, long budget) {
+        int move = search(board, limit, budget);
+        _lastStats = workerStats();
+        _lastScore = _searchScore;
+        _totalNodeCount += _lastStats.nodes;
+        return move;
+    }
+
+    /** Return the packed code of a move for the side to move on BOARD,
+     *  searching as for findMove, but without recording the statistics
+     *  of the search. */
+    private int search(Board board, int limit, long budget) {
+        if (_workers == null) {
+            _table = new TranspositionTable(_tableBytes);
+            _workers = new Worker[_threads];
+            for (int i = 0; i < _threads; i++) {
+                _workers[i] = new Worker();
+            }
+        }
+        _table.newSearch();
+        Board.Snapshot root = board.snapshot();
+        for (Worker worker : _workers) {
+            worker.newSearch(root);
+        }
+        long start = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        _deadline = NO_LIMIT;
+        _aborted = false;
+        _searchDepth = 0;
+        _searchScore = 0;
+        _branching = 0;
+        int n = board.generateMoves(board.turn(), _rootMoves);
+        if (n == 0) {
+            return NO_MOVE;
+        }
+        Endgame endgame = _workers[0]._endgame;
+        if (endgame.analyze(board)) {
+            _searchNanos = System.nanoTime() - startNanos;
+            _searchScore = endgame.winner(board.turn()) == board.turn()
+                ? WINNING_VALUE : -WINNING_VALUE;
+            return endgame.bestMove(board.turn());
+        } else if (endgame.hasReserves()) {
+            n = endgame.filterMoves(board.turn(), _rootMoves, n);
+        }
+        int best = NO_MOVE, score = 0, lastScore = 0;
+        long searched = 0, lastCost = 0;
+        for (int depth = 1; depth <= limit && !_cancelled; depth++) {
+            int alpha = -INFTY, beta = INFTY;
+            if (depth >= ASPIRATION_DEPTH) {
+                alpha = lastScore - ASPIRATION_WINDOW;
+                beta = lastScore + ASPIRATION_WINDOW;
+            }
+            lastScore = score;
+            while (true) {
+                score = searchRoot(depth, n, alpha, beta);
+                if (_aborted) {
+                    break;
+                } else if (score <= alpha) {
+                    alpha = -INFTY;
+                } else if (score >= beta) {
+                    beta = INFTY;
+                } else {
+                    break;
+                }
+            }
+            if (_aborted) {
+                break;
+            }
+            best = _rootMoves[0];
+            _searchScore = score;
+            long cost = workerNodeCount() - searched;
+            _branching = lastCost == 0 ? cost : (double) cost / lastCost;
+            _searchDepth = depth;
+            searched += cost;
+            lastCost = cost;
+            long elapsed = System.currentTimeMillis() - start;
+            if (abs(score) == WINNING_VALUE
+                || budget != NO_LIMIT && 2 * elapsed > budget) {
+                break;
+            }
+            if (budget != NO_LIMIT) {
+                _deadline = start + budget;
+            }
+        }
+        _searchNanos = System.nanoTime() - startNanos;
+        return best;
+    }
+
+    /** Search each of the first N moves in _rootMoves to DEPTH - 1 further
+     *  levels and return the value of the best for the side to move, if
+     *  it is strictly between ALPHA and BETA.  Otherwise, returns a value
+     *  no greater than ALPHA if all the moves are that bad, and a value at
+     *  least BETA, the value of some move, if one is that good.  Moves the
+     *  best move found to the front of _rootMoves, where the next search
+     *  will try it first.  Uses all the workers, if there are several,
+     *  each taking the next unsearched root move until there are none
+     *  left. */
+    private int searchRoot(int depth, int n, int alpha, int beta) {
+        _nextRoot.set(0);
+        _bestRoot = -1;
+        _bestRootScore = alpha;
+        if (_workers.length == 1) {
+            _workers[0].searchRoot(depth, n, beta);
         } else {
-            findMove(b, maxDepth(b), true, -1, -INFTY, INFTY);
-        }
-        return _lastFoundMove;
-    }
-
-    /** The move found by the last call to one of the ...FindMove methods
-     *  below. */
-    private Move _lastFoundMove;
-
-    /** Find a move from position BOARD and return its value, recording
-     *  the move found in _lastFoundMove iff SAVEMOVE. The move
-     *  should have maximal value or have value > BETA if SENSE==1,
-     *  and minimal value or value < ALPHA if SENSE==-1. Searches up to
-     *  DEPTH levels.  Searching at level 0 simply returns a static estimate
-     *  of the board value and does not set _lastMoveFound. */
-    private int findMove(Board board, int depth, boolean saveMove, int sense,
-                         int alpha, int beta) {
-        if (depth == 0 || board.winner() != Piece.EMPTY) {
-            return staticScore(board);
-        }
-
-        if (sense == 1) {
-            Iterator<Move> white = board.legalMoves(Piece.WHITE);
-            int max = staticScore(board);
-            while (white.hasNext()) {
-                Move move = white.next();
-                board.makeMove(move);
-                int eval = findMove(board, depth - 1, false, -1, alpha, beta);
-                board.undo();
-                max = Math.max(max, eval);
-                if (saveMove && !white.hasNext() && _lastFoundMove == null) {
-                    _lastFoundMove = move;
+            if (_pool == null) {
+                _pool = new ForkJoinPool(_workers.length);
+            }
+            ArrayList<Callable<Void>> tasks = new ArrayList<>();
+            for (Worker worker : _workers) {
+                tasks.add(() -> {
+                    worker.searchRoot(depth, n, beta);
+                    return null;
+                });
+            }
+            _pool.invokeAll(tasks);
+        }
+        if (_bestRoot > 0) {
+            int move = _rootMoves[_bestRoot];
+            System.arraycopy(_rootMoves, 0, _rootMoves, 1, _bestRoot);
+            _rootMoves[0] = move;
+        }
+        return _bestRootScore;
+    }
+
+    /** Record that root move number I has value SCORE for the side to
+     *  move, if it is better than the best so far, or than the lower bound
+     *  of the search if there is none yet.  Among moves of equal value,
+     *  the one earliest in _rootMoves wins.  Return the value of the best
+     *  root move so far. */
+    private synchronized int offerRoot(int i, int score) {
+        if (score > _bestRootScore
+            || score == _bestRootScore && i < _bestRoot) {
+            _bestRoot = i;
+            _bestRootScore = score;
+        }
+        return _bestRootScore;
+    }
+
+    /** Return the value of the best root move found so far, or the lower
+     *  bound of the search if there is none. */
+    private synchronized int bestRootScore() {
+        return _bestRootScore;
+    }
+
+    /** Return the number of milliseconds SIDE, playing under control of
+     *  CONTROLLER, should spend on the next move in position BOARD, or
+     *  NO_LIMIT if there are no time limits.  This is the per-move limit,
+     *  if any, or the remaining time for the game spread over the
+     *  estimated number of SIDE's moves left, whichever is less, with a
+     *  margin for safety. */
+    static long timeBudget(Controller controller, Piece side, Board board) {
+        long moveLimit = controller.moveTimeLimit();
+        long remaining = controller.timeRemaining(side);
+        if (moveLimit == 0 && remaining == NO_LIMIT) {
+            return NO_LIMIT;
+        }
+        long budget = moveLimit == 0 ? NO_LIMIT : moveLimit;
+        if (remaining != NO_LIMIT) {
+            int empty = Board.SIZE * Board.SIZE - 8 - board.numMoves();
+            int movesLeft = Math.max(MIN_MOVES_LEFT, empty / 3);
+            budget = Math.min(budget, remaining / movesLeft);
+        }
+        return Math.max(MIN_BUDGET, budget * 9 / 10 - TIME_MARGIN);
+    }
+
+    /** Value of budgets and deadlines that are unlimited. */
+    static final long NO_LIMIT = Long.MAX_VALUE;
+    /** Least number of my remaining moves assumed when dividing up the
+     *  time for a game. */
+    private static final int MIN_MOVES_LEFT = 4;
+    /** Least time in milliseconds allotted to a move. */
+    private static final long MIN_BUDGET = 10;
+    /** Milliseconds reserved on each move for overhead. */
+    private static final long TIME_MARGIN = 50;
+    /** Least depth of an iteration searched with an aspiration window
+     *  around the value found by the iteration two before.  Static
+     *  values swing with the side to move at the leaves, so the iteration
+     *  just before is a poorer guide. */
+    private static final int ASPIRATION_DEPTH = 3;
+    /** Half the width of an aspiration window. */
+    private static final int ASPIRATION_WINDOW = 100;
+    /** Greatest depth searched under a time limit. */
+    private static final int MAX_DEPTH = Board.SIZE * Board.SIZE;
+    /** One less than the number of nodes between checks of the clock
+     *  (a power of 2). */
+    private static final int CHECK_INTERVAL = (1 << 10) - 1;
+
+    /** Time (as from System.currentTimeMillis) at which the current search
+     *  must stop, or NO_LIMIT. */
+    private volatile long _deadline;
+    /** True iff the current search passed _deadline. */
+    private volatile boolean _aborted;
+    /** True iff the current search is in the background and must stop
+     *  (see stopPondering). */
+    private volatile boolean _cancelled;
+
+    /** Value of a move code denoting no move. */
+    private static final int NO_MOVE = -1;
+
+    /** Number of bits in a packed move code. */
+    private static final int MOVE_BITS = 21;
+    /** Mask selecting a packed move from a sort key. */
+    private static final long MOVE_MASK = (1L << MOVE_BITS) - 1;
+    /** Shift taking a packed move to its to and spear squares. */
+    private static final int MOVE_SHIFT = 7;
+    /** Mask selecting the from and to squares of a packed move. */
+    private static final int HISTORY_MASK = (1 << 2 * MOVE_SHIFT) - 1;
+    /** History score above which all history scores are halved. */
+    private static final int HISTORY_LIMIT = 1 << 24;
+    /** One more than the greatest number of empty neighbors a square can
+     *  have; history scores are scaled by this to leave room for them. */
+    private static final long MOBILITY_RANGE = 9;
+    /** Sort score of killer moves, above any history score. */
+    private static final long KILLER_SCORE =
+        4L * HISTORY_LIMIT * MOBILITY_RANGE;
+    /** Sort score of the move from the transposition table. */
+    private static final long HASH_MOVE_SCORE = KILLER_SCORE + 2;
+
+    /** Legal moves in the position being searched, best first after each
+     *  iteration. */
+    private final int[] _rootMoves = new int[Board.MAX_MOVES];
+    /** Index in _rootMoves of the next root move for a worker to take. */
+    private final AtomicInteger _nextRoot = new AtomicInteger();
+    /** Index in _rootMoves of the best root move found in the current
+     *  iteration, or -1. */
+    private int _bestRoot;
+    /** Value of the best root move found in the current iteration, or
+     *  the lower bound of the search if there is none. */
+    private int _bestRootScore;
+
+    /** The state of one search thread: its own copy of the position and
+     *  move buffers.  All workers share my transposition table. */
+    private class Worker {
+
+        /** A new worker. */
+        Worker() {
+            _territory = new Territory(_evaluator);
+        }
+
+        /** Prepare to search ROOT. */
+        void newSearch(Board.Snapshot root) {
+            _board.restore(root);
+            _rootPly = root.numMoves();
+            _undivided[0] = -1;
+            for (int[] killers : _killers) {
+                killers[0] = killers[1] = NO_MOVE;
+            }
+            ageHistory();
+            _stats.clear();
+            _timing = SearchStats.ENABLED && _statistics;
+        }
+
+        /** Take root moves from _rootMoves, among the first N, until there
+         *  are none left or one has a value of at least BETA, searching
+         *  each to DEPTH - 1 further levels, and offer the results to
+         *  offerRoot.  The first root move is searched with the full
+         *  window; the others are first searched with a null window at the
+         *  best value so far (any worker's), which shows cheaply that most
+         *  are no better, and searched again with the full window only if
+         *  they are. */
+        void searchRoot(int depth, int n, int beta) {
+            for (int i = _nextRoot.getAndIncrement(); i < n;
+                 i = _nextRoot.getAndIncrement()) {
+                int alpha = bestRootScore();
+                if (alpha >= beta) {
+                    return;
                 }
-                if (saveMove && (Math.max(eval, max) == eval)) {
-                    _lastFoundMove = move;
+                makeMove(_rootMoves[i]);
+                int eval;
+                if (i == 0 || alpha == -INFTY) {
+                    eval = -findMove(depth - 1, -beta, -alpha);
+                } else {
+                    eval = -findMove(depth - 1, -alpha - 1, -alpha);
+                    if (eval > alpha && eval < beta) {
+                        eval = -findMove(depth - 1, -beta, -alpha);
+                    }
                 }
-                alpha = Math.max(alpha, eval);
-                if (beta <= alpha) {
-                    break;
+                undo();
+                if (_aborted) {
+                    return;
+                }
+                if (eval > alpha) {
+                    offerRoot(i, eval);
                 }
             }
-            return max;
+        }
 
-        } else {
-            Iterator<Move> black = board.legalMoves(Piece.BLACK);
-            int min = staticScore(board);
-            while (black.hasNext()) {
-                Move move = black.next();
-                board.makeMove(move);
-                int eval = findMove(board, depth - 1, false, 1, alpha, beta);
-                board.undo();
-                min = Math.min(staticScore(board), eval);
-                if (saveMove && !black.hasNext() && _lastFoundMove == null) {
-                    _lastFoundMove = move;
+        /** Return the value of my position for the side to move (negamax),
+         *  searched to DEPTH levels, if it is strictly between ALPHA and
+         *  BETA.  Otherwise, returns a value no greater than ALPHA if the
+         *  true value is no greater, and a value at least BETA if it is at
+         *  least BETA.  At level 0, or when the game is over, returns the
+         *  static value.  Searches the first move with the window (ALPHA,
+         *  BETA), and the others with a null window at ALPHA, searching
+         *  them again with the full window if they prove better (principal
+         *  variation search).  Results are cached in _table, which supplies
+         *  cutoffs when it already holds a deep enough result for the
+         *  position, and the first move to try.  Interior positions decided
+         *  by their regions (see Endgame) are scored as wins without
+         *  searching, and moves in regions already settled are pruned.
+         *  Positions whose queens are all still in one region too large to
+         *  solve are not analyzed.
+         *  Sets _aborted and returns a meaningless value if the search
+         *  passes _deadline or is cancelled. */
+        private int findMove(int depth, int alpha, int beta) {
+            Board board = _board;
+            _stats.nodes++;
+            if ((_stats.nodes & CHECK_INTERVAL) == 0
+                && (System.currentTimeMillis() >= _deadline || _cancelled)) {
+                _aborted = true;
+            }
+            if (_aborted) {
+                return 0;
+            }
+            Piece side = board.turn();
+            if (depth == 0 || board.winner() != Piece.EMPTY) {
+                int score = evaluate(board);
+                return side == WHITE ? score : -score;
+            }
+            int ply = board.numMoves() - _rootPly;
+            boolean reserves = false;
+            int undivided = _undivided[ply - 1] - 1;
+            int spear = Move.spear(board.move(board.numMoves() - 1));
+            if (undivided > Endgame.MAX_EMPTY
+                && !Endgame.maySplit(board, spear)) {
+                _undivided[ply] = undivided;
+            } else {
+                if (_endgame.analyze(board)) {
+                    return _endgame.winner(side) == side
+                        ? WINNING_VALUE : -WINNING_VALUE;
+                }
+                reserves = _endgame.hasReserves();
+                _undivided[ply] = _endgame.undividedEmpty();
+            }
+
+            long key = board.hash();
+            long entry = _table.probe(key);
+            int hashMove = NO_MOVE;
+            if (entry != TranspositionTable.MISSING) {
+                hashMove = TranspositionTable.move(entry);
+                if (TranspositionTable.depth(entry) >= depth) {
+                    int score = TranspositionTable.score(entry);
+                    switch (TranspositionTable.bound(entry)) {
+                    case TranspositionTable.EXACT:
+                        return score;
+                    case TranspositionTable.LOWER:
+                        alpha = Math.max(alpha, score);
+                        break;
+                    default:
+                        beta = Math.min(beta, score);
+                        break;
+                    }
+                    if (beta <= alpha) {
+                        return score;
+                    }
+                }
+            }
+
+            int alpha0 = alpha;
+            long start = _timing ? System.nanoTime() : 0;
+            int[] moves = moveBuffer(depth);
+            int n = board.generateMoves(side, moves);
+            if (reserves) {
+                n = _endgame.filterMoves(side, moves, n);
+            }
+            orderMoves(moves, n, hashMove, ply, depth);
+            if (_timing) {
+                _stats.generateNanos += System.nanoTime() - start;
+            }
+            int best = -INFTY;
+            int bestMove = NO_MOVE;
+            for (int i = 0; i < n; i++) {
+                int move = moves[i];
+                makeMove(move);
+                int eval;
+                if (i == 0) {
+                    eval = -findMove(depth - 1, -beta, -alpha);
+                } else {
+                    eval = -findMove(depth - 1, -alpha - 1, -alpha);
+                    if (eval > alpha && eval < beta) {
+                        eval = -findMove(depth - 1, -beta, -alpha);
+                    }
+                }
+                undo();
+                if (_aborted) {
+                    return 0;
                 }
-                if (saveMove && (Math.min(eval, min) == eval))  {
-                    _lastFoundMove = move;
+                if (eval > best) {
+                    best = eval;
+                    bestMove = move;
                 }
-                beta = Math.max(beta, eval);
-                if (beta <= alpha) {
+                alpha = Math.max(alpha, eval);
+                if (alpha >= beta) {
+                    cutoff(move, i, ply, depth);
                     break;
                 }
             }
-            return min;
+
+            int bound;
+            if (best <= alpha0) {
+                bound = TranspositionTable.UPPER;
+            } else if (best >= beta) {
+                bound = TranspositionTable.LOWER;
+            } else {
+                bound = TranspositionTable.EXACT;
+            }
+            _table.store(key, depth, best, bound, bestMove);
+            return best;
         }
+
+        /** Sort the first N entries of MOVES, the moves at PLY levels below
+         *  the root with DEPTH levels left to search, into the order in
+         *  which to try them: HASHMOVE (if present), then the killer moves
+         *  for PLY, then the rest by decreasing history score, with ties
+         *  broken by the number of empty squares around each queen's
+         *  destination. */
+        private void orderMoves(int[] moves, int n, int hashMove, int ply,
+                                int depth) {
+            long[] keys = keyBuffer(depth);
+            int killer0 = _killers[ply][0], killer1 = _killers[ply][1];
+            for (int i = 0; i < n; i++) {
+                int move = moves[i];
+                long score;
+                if (move == hashMove) {
+                    score = HASH_MOVE_SCORE;
+                } else if (move == killer0) {
+                    score = KILLER_SCORE + 1;
+                } else if (move == killer1) {
+                    score = KILLER_SCORE;
+                } else {
+                    score = (long) (_fromToHistory[move & HISTORY_MASK]
+                                    + _toSpearHistory[move >>> MOVE_SHIFT])
+                        * MOBILITY_RANGE + _board.free(Move.to(move));
+                }
+                keys[i] = score << MOVE_BITS | move;
+            }
+            Arrays.sort(keys, 0, n);
+            for (int i = 0; i < n; i++) {
+                moves[i] = (int) (keys[n - 1 - i] & MOVE_MASK);
+            }
+        }
+
+        /** Record that MOVE, the Ith move tried at PLY levels below the
+         *  root with DEPTH levels left to search, caused a cutoff. */
+        private void cutoff(int move, int i, int ply, int depth) {
+            if (SearchStats.ENABLED) {
+                _stats.cutoffs++;
+                _stats.cutoffIndices += i;
+                if (i == 0) {
+                    _stats.firstMoveCutoffs++;
+                }
+            }
+            if (_killers[ply][0] != move) {
+                _killers[ply][1] = _killers[ply][0];
+                _killers[ply][0] = move;
+            }
+            int bonus = depth * depth;
+            int a = move & HISTORY_MASK, b = move >>> MOVE_SHIFT;
+            _fromToHistory[a] += bonus;
+            _toSpearHistory[b] += bonus;
+            if (_fromToHistory[a] > HISTORY_LIMIT
+                || _toSpearHistory[b] > HISTORY_LIMIT) {
+                ageHistory();
+            }
+        }
+
+        /** Return the static value of BOARD (see staticScore), counting it
+         *  and, if timing, timing it. */
+        private int evaluate(Board board) {
+            if (SearchStats.ENABLED) {
+                _stats.leaves++;
+            }
+            if (!_timing) {
+                return staticScore(board, _territory);
+            }
+            long start = System.nanoTime();
+            int score = staticScore(board, _territory);
+            _stats.evalNanos += System.nanoTime() - start;
+            return score;
+        }
+
+        /** Make MOVE on my board, timing it if timing. */
+        private void makeMove(int move) {
+            if (!_timing) {
+                _board.makeMove(move);
+                return;
+            }
+            long start = System.nanoTime();
+            _board.makeMove(move);
+            _stats.makeNanos += System.nanoTime() - start;
+        }
+
+        /** Undo the last move on my board, timing it if timing. */
+        private void undo() {
+            if (!_timing) {
+                _board.undo();
+                return;
+            }
+            long start = System.nanoTime();
+            _board.undo();
+            _stats.makeNanos += System.nanoTime() - start;
+        }
+
+        /** Halve all history scores, so that recent cutoffs count for more
+         *  than old ones. */
+        private void ageHistory() {
+            for (int i = 0; i < _fromToHistory.length; i++) {
+                _fromToHistory[i] >>= 1;
+                _toSpearHistory[i] >>= 1;
+            }
+        }
+
+        /** Return the sort-key buffer used by searches with DEPTH levels
+         *  remaining, creating it if necessary. */
+        private long[] keyBuffer(int depth) {
+            if (depth >= _keyBuffers.length) {
+                _keyBuffers = Arrays.copyOf(_keyBuffers, depth + 1);
+            }
+            if (_keyBuffers[depth] == null) {
+                _keyBuffers[depth] = new long[Board.MAX_MOVES];
+            }
+            return _keyBuffers[depth];
+        }
+
+        /** Return the move buffer used by searches with DEPTH levels
+         *  remaining, creating it if necessary. */
+        private int[] moveBuffer(int depth) {
+            if (depth >= _moveBuffers.length) {
+                _moveBuffers = Arrays.copyOf(_moveBuffers, depth + 1);
+            }
+            if (_moveBuffers[depth] == null) {
+                _moveBuffers[depth] = new int[Board.MAX_MOVES];
+            }
+            return _moveBuffers[depth];
+        }
+
+        /** My copy of the position being searched. */
+        private final Board _board = new Board();
+        /** My evaluator for leaf positions. */
+        private final Territory _territory;
+        /** My analyzer of separated regions. */
+        private final Endgame _endgame = new Endgame();
+        /** Move buffers for Board.generateMoves, indexed by remaining
+         *  search depth, so that each level of the search reuses its own
+         *  array. */
+        private int[][] _moveBuffers = new int[0][];
+        /** Buffers of sort keys for orderMoves, indexed like
+         *  _moveBuffers. */
+        private long[][] _keyBuffers = new long[0][];
+        /** Number of moves made on _board before the current search. */
+        private int _rootPly;
+        /** The two most recent moves that caused cutoffs at each ply below
+         *  the root in the current search, most recent first. */
+        private final int[][] _killers = new int[MAX_DEPTH + 1][2];
+        /** At each ply of the current search, the number of empty squares
+         *  reachable from the queens if they are all in one region (see
+         *  Endgame.undividedEmpty), or -1 if they are not. */
+        private final int[] _undivided = new int[MAX_DEPTH + 1];
+        /** Scores of moves that caused cutoffs, indexed by the from and to
+         *  squares of a packed move. */
+        private final int[] _fromToHistory = new int[HISTORY_MASK + 1];
+        /** Scores of moves that caused cutoffs, indexed by the to and spear
+         *  squares of a packed move. */
+        private final int[] _toSpearHistory = new int[HISTORY_MASK + 1];
+        /** Statistics of my part of the current search. */
+        private final SearchStats _stats = new SearchStats();
+        /** True iff I am timing the phases of the current search. */
+        private boolean _timing;
     }
 
+    /** Memory budget of the transposition table in bytes. */
+    private long _tableBytes;
+
+    /** Number of search threads. */
+    private int _threads;
+
+    /** Template for the workers' evaluators. */
+    private Territory _evaluator;
+
+    /** Opening book, or null. */
+    private OpeningBook _book;
+
+    /** True iff I time my searches and report their statistics. */
+    private boolean _statistics;
+
+    /** True iff I search in the background on my opponent's time. */
+    private boolean _pondering;
+
+    /** Thread searching in the background, or null. */
+    private Thread _ponderThread;
+
+    /** The reply my background search expects, or null. */
+    private Move _ponderMove;
+
+    /** Statistics of my last search on my own time (by findMove), or
+     *  null if there has been none. */
+    private SearchStats _lastStats;
+
+    /** Depth of the deepest iteration of the last search that
+     *  finished. */
+    private int _searchDepth;
+
+    /** Value of the move found by the last search for the side to
+     *  move. */
+    private int _searchScore;
+
+    /** Value of the move found by my last search on my own time (by
+     *  findMove) for the side to move. */
+    private int _lastScore;
+
+    /** Nanoseconds taken by the last search. */
+    private long _searchNanos;
+
+    /** Effective branching factor of the last search (see
+     *  SearchStats.branching). */
+    private double _branching;
+
+    /** Number of positions visited by all my searches. */
+    private long _totalNodeCount;
+
+    /** Cache of the results of my searches, shared by all my workers,
+     *  created when first needed. */
+    private TranspositionTable _table;
+
+    /** The search workers, one per thread, created when first needed. */
+    private Worker[] _workers;
+
+    /** Thread pool for searches with several workers, created when first
+     *  needed. */
+    private ForkJoinPool _pool;
+
     /** Return a heuristically determined maximum search depth
      *  based on characteristics of BOARD. */
     private int maxDepth(Board board) {
         int N = board.numMoves();
-        int size = board.whites().size() + board.blacks().size();
+        int size = board.queenCount(WHITE) + board.queenCount(BLACK);
         if (N < STEP1) {
             return 1;
         } else if (N < STEP2) {
@@ -139,27 +951,15 @@ class AI extends Player {
     }
 
 
-    /** Return a heuristic value for BOARD. */
-    private int staticScore(Board board) {
+    /** Return a heuristic value for BOARD, using TERRITORY to evaluate
+     *  positions where the game is not over. */
+    static int staticScore(Board board, Territory territory) {
         Piece winner = board.winner();
         if (winner == BLACK) {
             return -WINNING_VALUE;
         } else if (winner == WHITE) {
             return WINNING_VALUE;
         }
-        int n = 0;
-        for (Square white : board.whites()) {
-            n += Math.pow(board.free(white), 2);
-            if (!board.isLegal(white)) {
-                n -= TRAP;
-            }
-        }
-        for (Square black : board.blacks()) {
-            n -= Math.pow(board.free(black), 2);
-            if (board.isLegal(black)) {
-                n += TRAP;
-            }
-        }
-        return n;
+        return territory.score(board);
     }
 }
@@ -3,6 +3,18 @@ package amazons;
 import org.junit.Test;
 import ucb.junit.textui;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.junit.Assert.*;
 
 public class AITest {
@@ -34,4 +46,565 @@ public class AITest {
         long endTime = System.nanoTime();
         assertTrue((endTime - startTime) / 100000 < 10);
     }
+
+    @Test
+    public void transpositionTableTest() {
+        TranspositionTable table = new TranspositionTable(1 << 10);
+        assertEquals(64, table.size());
+        assertEquals(TranspositionTable.MISSING, table.probe(12345L));
+        table.store(12345L, 3, -17, TranspositionTable.LOWER, 99);
+        long entry = table.probe(12345L);
+        assertTrue(entry != TranspositionTable.MISSING);
+        assertEquals(3, TranspositionTable.depth(entry));
+        assertEquals(-17, TranspositionTable.score(entry));
+        assertEquals(TranspositionTable.LOWER,
+                     TranspositionTable.bound(entry));
+        assertEquals(99, TranspositionTable.move(entry));
+        table.store(12345L, 3, AI.WINNING_VALUE, TranspositionTable.EXACT, -1);
+        entry = table.probe(12345L);
+        assertEquals(AI.WINNING_VALUE, TranspositionTable.score(entry));
+        assertEquals(-1, TranspositionTable.move(entry));
+
+        long missing = TranspositionTable.MISSING;
+        long other = 12345L + table.size();
+        long third = 12345L + 2 * table.size();
+        table.store(other, 1, 5, TranspositionTable.EXACT, 7);
+        assertTrue(table.probe(12345L) != missing);
+        assertTrue(table.probe(other) != missing);
+        table.store(third, 2, 0, TranspositionTable.EXACT, 8);
+        assertTrue(table.probe(12345L) != missing);
+        assertEquals(missing, table.probe(other));
+        table.newSearch();
+        table.newSearch();
+        table.store(other, 1, 5, TranspositionTable.EXACT, 7);
+        assertTrue(table.probe(12345L) != missing);
+        assertEquals(missing, table.probe(third));
+        table.store(third, 0, 0, TranspositionTable.EXACT, 8);
+        assertEquals(missing, table.probe(12345L));
+        assertTrue(table.probe(other) != missing);
+    }
+
+    @Test
+    public void transpositionTableStressTest() throws InterruptedException {
+        Random random = new Random(21);
+        int[] buffer = new int[Board.MAX_MOVES];
+        final int positions = 256;
+        Board[] boards = new Board[positions];
+        long[] keys = new long[positions];
+        int[][] moves = new int[positions][];
+        for (int i = 0; i < positions; i++) {
+            Board b = BoardTest.randomPosition(random,
+                                                   random.nextInt(60));
+            int n = b.generateMoves(b.turn(), buffer);
+            boards[i] = b;
+            keys[i] = b.hash();
+            moves[i] = Arrays.copyOf(buffer, n);
+        }
+
+        TranspositionTable table = new TranspositionTable(1 << 10);
+        AtomicInteger hits = new AtomicInteger();
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final long seed = t;
+            threads[t] = new Thread(() -> {
+                Random r = new Random(seed);
+                for (int k = 0; k < 200000 && errors.isEmpty(); k++) {
+                    int i = r.nextInt(positions);
+                    if (r.nextBoolean()) {
+                        int move = moves[i].length == 0 ? -1
+                            : moves[i][r.nextInt(moves[i].length)];
+                        table.store(keys[i], r.nextInt(20),
+                                    r.nextInt(), r.nextInt(3), move);
+                        continue;
+                    }
+                    long entry = table.probe(keys[i]);
+                    if (entry == TranspositionTable.MISSING) {
+                        continue;
+                    }
+                    hits.incrementAndGet();
+                    int move = TranspositionTable.move(entry);
+                    int depth = TranspositionTable.depth(entry);
+                    if (depth < 0 || depth >= 20
+                        || TranspositionTable.bound(entry) > 2
+                        || move == -1 && moves[i].length != 0
+                        || move != -1
+                           && !boards[i].isLegal(Move.mv(move))) {
+                        errors.add(String.format("position %d: entry %x",
+                                                 i, entry));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), errors);
+        assertTrue(hits.get() > 0);
+    }
+
+    @Test
+    public void timeLimitTest() {
+        Controller controller =
+            new Controller(new NullView(), null, new TextReporter(),
+                           new TextPlayer(), new AI());
+        controller.setTimeLimits(300, 0);
+        Player ai = new AI().create(Piece.WHITE, controller);
+        long start = System.currentTimeMillis();
+        Move move = Move.mv(ai.myMove());
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue(controller.board().isLegal(move));
+        assertTrue(elapsed < 1500);
+    }
+
+    @Test
+    public void threadsTest() {
+        Board b = BoardTest.randomPosition(new Random(3), 24);
+        int move = new AI().findMove(b, 2, AI.NO_LIMIT);
+        assertEquals(move, new AI().findMove(b, 2, AI.NO_LIMIT));
+        AI parallel = new AI();
+        parallel.setThreads(3);
+        int other = parallel.findMove(b, 2, AI.NO_LIMIT);
+        assertTrue(b.isLegal(Move.mv(other)));
+        assertTrue(parallel.nodeCount() > 0);
+        assertEquals(24, b.numMoves());
+    }
+
+    @Test
+    public void moveOrderingTest() {
+        Board b = BoardTest.randomPosition(new Random(5), 30);
+        AI ai = new AI();
+        int move = ai.findMove(b, 3, AI.NO_LIMIT);
+        assertTrue(b.isLegal(Move.mv(move)));
+        assertTrue(ai.cutoffCount() > 0);
+        assertTrue(ai.firstMoveCutoffCount() <= ai.cutoffCount());
+        assertTrue(ai.firstMoveCutoffCount() * 2 > ai.cutoffCount());
+        assertEquals(move, new AI().findMove(b, 3, AI.NO_LIMIT));
+    }
+
+    /** Set DIST to the distances from SIDE's queens on BOARD by queen
+     *  moves, if QUEEN, or king moves, computed square by square. */
+    private void naiveDistances(Board board, Piece side, boolean queen,
+                                int[] dist) {
+        ArrayDeque<Square> queue = new ArrayDeque<>();
+        Arrays.fill(dist, Territory.UNREACHABLE);
+        for (Square q : side == Piece.WHITE ? board.whites()
+                 : board.blacks()) {
+            dist[q.index()] = 0;
+            queue.add(q);
+        }
+        while (!queue.isEmpty()) {
+            Square s = queue.remove();
+            for (int dir = 0; dir < 8; dir++) {
+                for (int to : Square.ray(s.index(), dir)) {
+                    if (board.get(to) != Piece.EMPTY) {
+                        break;
+                    }
+                    if (dist[to] == Territory.UNREACHABLE) {
+                        dist[to] = dist[s.index()] + 1;
+                        queue.add(Square.sq(to));
+                    }
+                    if (!queen) {
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void territoryTest() {
+        Territory territory = new Territory();
+        int[] expected = new int[100], actual = new int[100];
+        Random random = new Random(7);
+        for (int plies = 0; plies < 60; plies += 6) {
+            Board b = BoardTest.randomPosition(random, plies);
+            for (Piece side : new Piece[] { Piece.WHITE, Piece.BLACK }) {
+                for (boolean queen : new boolean[] { true, false }) {
+                    naiveDistances(b, side, queen, expected);
+                    territory.distances(b, side, queen, actual);
+                    assertArrayEquals(expected, actual);
+                }
+            }
+        }
+        assertEquals(0, new Territory(0, 0, 1, 1).score(new Board()));
+        Board b = new Board();
+        b.makeMove(Move.mv("d1-d7(d1)"));
+        assertTrue(territory.score(b) > 0);
+    }
+
+    @Test
+    public void tournamentTest() {
+        assertEquals("+0", Tournament.elo(0.5));
+        assertEquals("+191", Tournament.elo(0.75));
+        assertEquals("-191", Tournament.elo(0.25));
+        assertEquals("+inf", Tournament.elo(1));
+
+        assertTrue(Tournament.configure("threads=2") instanceof AI);
+        assertTrue(Tournament.configure("hash=1,mcts")
+                   instanceof MonteCarlo);
+        Tournament tournament =
+            new Tournament(new AI(), Tournament.configure("mcts"));
+        tournament.setGames(2);
+        tournament.setThreads(2);
+        tournament.setTimeLimits(20, 0);
+        List<Tournament.Result> results = tournament.play();
+        assertEquals(2, results.size());
+        for (Tournament.Result result : results) {
+            assertTrue(result.winner == 0 || result.winner == 1);
+            assertTrue(result.moves[0] > 0 && result.moves[1] > 0);
+            assertTrue(result.nodes[0] > 0 && result.nodes[1] > 0);
+        }
+
+        tournament.setPlies(1);
+        results = tournament.play();
+        for (int game = 0; game < 2; game++) {
+            Tournament.Result result = results.get(game);
+            int black = game % 2 == 0 ? 1 : 0;
+            long extra = result.moves[black] - result.moves[1 - black];
+            assertTrue(extra == 0 || extra == 1);
+        }
+    }
+
+    @Test
+    public void openingBookTest() throws IOException {
+        File log = File.createTempFile("book", ".log");
+        File book = File.createTempFile("book", ".bin");
+        log.deleteOnExit();
+        book.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(log)) {
+            out.println("d1-d7(d1)");
+            out.println("a7-b7(a7)");
+            out.println("new");
+            out.println("d1-d7(d1)");
+            out.println("g10-g9(g10)");
+            out.println("new");
+            out.println("g1-g7(g1)");
+        }
+        assertEquals(4, OpeningBook.build(book.getPath(),
+                                          Arrays.asList(log.getPath()), 2));
+        OpeningBook opening = new OpeningBook(book.getPath());
+        assertEquals(4, opening.size());
+        for (int i = 1; i < opening.size(); i++) {
+            assertTrue(Long.compareUnsigned(opening.key(i - 1),
+                                            opening.key(i)) <= 0);
+        }
+        Board b = new Board();
+        assertEquals(Move.mv("d1-d7(d1)").code(), opening.probe(b, null));
+        for (int k = 0; k < 10; k++) {
+            int pick = k;
+            int move = opening.probe(b, n -> pick % n);
+            assertTrue(move == Move.mv("d1-d7(d1)").code()
+                       || move == Move.mv("g1-g7(g1)").code());
+        }
+        b.makeMove(Move.mv("g1-g7(g1)"));
+        assertEquals(-1, opening.probe(b, null));
+        b.undo();
+        b.makeMove(Move.mv("d1-d7(d1)"));
+        int reply = opening.probe(b, null);
+        assertTrue(reply == Move.mv("a7-b7(a7)").code()
+                   || reply == Move.mv("g10-g9(g10)").code());
+
+        AI template = new AI();
+        template.setBook(opening);
+        Controller controller =
+            new Controller(new NullView(), null, new NullReporter(),
+                           template, template);
+        AI ai = (AI) template.create(Piece.WHITE, controller);
+        String move = ai.myMove();
+        assertTrue(move.equals("d1-d7(d1)") || move.equals("g1-g7(g1)"));
+    }
+
+    /** Put P on the square of B with index INDEX. */
+    private static void put(Board b, Piece p, int index) {
+        b.put(p, index / Board.SIZE, index % Board.SIZE);
+    }
+
+    @Test
+    public void endgameTest() {
+        Board b = new Board();
+        List<String> open = Arrays.asList("a3", "a2", "a8", "a9", "a10");
+        for (int i = 0; i < Board.SIZE * Board.SIZE; i++) {
+            Square sq = Square.sq(i);
+            if (b.get(sq) == Piece.EMPTY && !open.contains(sq.toString())) {
+                put(b, Piece.SPEAR, i);
+            }
+        }
+        Endgame endgame = new Endgame();
+        assertTrue(endgame.analyze(b));
+        assertEquals(2, endgame.reserve(Piece.WHITE));
+        assertEquals(3, endgame.reserve(Piece.BLACK));
+        assertEquals(Piece.BLACK, endgame.winner(Piece.WHITE));
+        int move = endgame.reserveMove(Piece.WHITE);
+        assertEquals(Square.sq("a4").index(), Move.from(move));
+        b.makeMove(move);
+        assertTrue(endgame.analyze(b));
+        assertEquals(1, endgame.reserve(Piece.WHITE));
+        assertEquals(Piece.BLACK, endgame.winner(Piece.BLACK));
+        b.undo();
+        assertEquals(Square.sq("a4").index(),
+                     Move.from(new AI().findMove(b, 1, AI.NO_LIMIT)));
+
+        for (char col = 'f'; col <= 'h'; col++) {
+            for (int row = 2; row <= 9; row++) {
+                put(b, Piece.EMPTY, Square.sq(col + "" + row).index());
+            }
+        }
+        assertFalse(endgame.analyze(b));
+        assertTrue(endgame.hasReserves());
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = b.generateMoves(Piece.WHITE, moves);
+        int fromG1 = 0;
+        for (int i = 0; i < n; i++) {
+            if (Move.from(moves[i]) == Square.sq("g1").index()) {
+                fromG1 += 1;
+            }
+        }
+        assertTrue(fromG1 < n - 1);
+        assertEquals(fromG1 + 1, endgame.filterMoves(Piece.WHITE, moves, n));
+        assertEquals(Square.sq("a4").index(), Move.from(moves[fromG1]));
+    }
+
+    @Test
+    public void manyRegionsEndgameTest() {
+        Board b = new Board();
+        for (int i = 0; i < Board.SIZE * Board.SIZE; i++) {
+            put(b, Piece.SPEAR, i);
+        }
+        int queens = 0;
+        for (int col = 0; col < Board.SIZE; col += 2) {
+            for (int row = 0; row < 4; row += 3) {
+                int index = col * Board.SIZE + row;
+                put(b, queens % 2 == 0 ? Piece.WHITE : Piece.BLACK, index);
+                put(b, Piece.EMPTY, index + 1);
+                queens += 1;
+            }
+        }
+        assertEquals(10, queens);
+        Endgame endgame = new Endgame();
+        assertFalse(endgame.analyze(b));
+        assertTrue(endgame.hasReserves());
+        assertTrue(endgame.reserve(Piece.WHITE) > 0);
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = b.generateMoves(Piece.WHITE, moves);
+        assertTrue(endgame.filterMoves(Piece.WHITE, moves, n) > 0);
+    }
+
+    /** Return true iff the side to move in B wins with best play, found
+     *  by searching every line to the end, with results kept in SOLVED
+     *  by position. */
+    private static boolean wins(Board b, HashMap<Long, Boolean> solved) {
+        Boolean known = solved.get(b.hash());
+        if (known != null) {
+            return known;
+        }
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = b.generateMoves(b.turn(), moves);
+        boolean win = false;
+        for (int i = 0; i < n && !win; i++) {
+            b.makeMove(moves[i]);
+            win = !wins(b, solved);
+            b.undo();
+        }
+        solved.put(b.hash(), win);
+        return win;
+    }
+
+    @Test
+    public void mixedEndgameTest() {
+        String[] open = { "b1", "c1", "a2", "b2", "c2", "d2", "a9", "c9",
+                          "c8", "e9", "g9", "f6", "j2", "j3" };
+        String[] white = { "a1", "a10", "c10", "f5" };
+        String[] black = { "d1", "e10", "g10", "j1" };
+        for (int extra = 0; extra < 4; extra++) {
+            Board b = new Board();
+            for (int i = 0; i < Board.SIZE * Board.SIZE; i++) {
+                put(b, Piece.SPEAR, i);
+            }
+            for (String sq : open) {
+                put(b, Piece.EMPTY, Square.sq(sq).index());
+            }
+            if ((extra & 1) != 0) {
+                put(b, Piece.EMPTY, Square.sq("c7").index());
+            }
+            if ((extra & 2) != 0) {
+                put(b, Piece.EMPTY, Square.sq("j4").index());
+                put(b, Piece.EMPTY, Square.sq("j5").index());
+            }
+            for (int i = 0; i < white.length; i++) {
+                put(b, Piece.WHITE, Square.sq(white[i]).index());
+                put(b, Piece.BLACK, Square.sq(black[i]).index());
+            }
+            Endgame endgame = new Endgame();
+            assertTrue(endgame.analyze(b));
+            assertEquals(-1, endgame.undividedEmpty());
+            boolean win = wins(b, new HashMap<>());
+            Piece turn = b.turn();
+            assertEquals(win ? turn : turn.opponent(), endgame.winner(turn));
+            int move = endgame.bestMove(turn);
+            assertTrue(b.isLegal(Move.mv(move)));
+            b.makeMove(move);
+            assertEquals(win, !wins(b, new HashMap<>()));
+        }
+    }
+
+    @Test
+    public void undividedTest() {
+        Board b = new Board();
+        Endgame endgame = new Endgame();
+        assertFalse(endgame.analyze(b));
+        assertEquals(Board.SIZE * Board.SIZE - 8, endgame.undividedEmpty());
+        int e5 = Square.sq("e5").index(), a1 = Square.sq("a1").index();
+        assertFalse(Endgame.maySplit(b, e5));
+        put(b, Piece.SPEAR, Square.sq("e6").index());
+        assertFalse(Endgame.maySplit(b, e5));
+        put(b, Piece.SPEAR, Square.sq("e4").index());
+        assertTrue(Endgame.maySplit(b, e5));
+        assertFalse(Endgame.maySplit(b, a1));
+        put(b, Piece.SPEAR, Square.sq("b2").index());
+        assertFalse(Endgame.maySplit(b, a1));
+        put(b, Piece.SPEAR, Square.sq("b1").index());
+        assertFalse(Endgame.maySplit(b, a1));
+    }
+
+    @Test
+    public void statsTest() {
+        Board b = new Board();
+        AI ai = new AI();
+        ai.findMove(b, 2, AI.NO_LIMIT);
+        SearchStats stats = ai.stats();
+        assertEquals(ai.nodeCount(), stats.nodes);
+        assertTrue(stats.leaves > 0 && stats.leaves <= stats.nodes);
+        assertEquals(2, stats.depth);
+        assertTrue(stats.branching > 1);
+        assertTrue(stats.elapsedNanos > 0);
+        assertEquals(0, stats.evalNanos + stats.makeNanos
+                     + stats.generateNanos);
+
+        AI timed = new AI();
+        timed.setStatistics(true);
+        timed.findMove(b, 2, AI.NO_LIMIT);
+        stats = timed.stats();
+        assertTrue(stats.evalNanos > 0 && stats.makeNanos > 0
+                   && stats.generateNanos > 0);
+        assertTrue(stats.evalNanos + stats.makeNanos + stats.generateNanos
+                   <= stats.elapsedNanos);
+        assertTrue(stats.toString().startsWith("nodes=" + stats.nodes + " "));
+    }
+
+    @Test
+    public void ponderTest() throws InterruptedException {
+        AI template = new AI();
+        template.setPondering(true);
+        Controller controller =
+            new Controller(new NullView(), null, new NullReporter(),
+                           template, template);
+        Board b = controller.board();
+        AI ai = (AI) template.create(Piece.WHITE, controller);
+        b.makeMove(Move.mv(ai.myMove()));
+        assertTrue(ai.pondering());
+        Move expected = ai.ponderMove();
+        assertTrue(expected == null || b.isLegal(expected));
+        long total = ai.totalNodeCount();
+        SearchStats stats = ai.stats();
+        Thread.sleep(100);
+        assertTrue(ai.pondering());
+        assertEquals(stats.nodes, ai.stats().nodes);
+
+        int[] moves = new int[Board.MAX_MOVES];
+        b.generateMoves(Piece.BLACK, moves);
+        b.makeMove(moves[0]);
+        Move move = Move.mv(ai.myMove());
+        assertTrue(b.isLegal(move));
+        assertTrue(ai.totalNodeCount() > total);
+        assertTrue(ai.pondering());
+        stats = ai.stats();
+        long start = System.currentTimeMillis();
+        ai.stop();
+        assertFalse(ai.pondering());
+        assertNull(ai.ponderMove());
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertSame(stats, ai.stats());
+        assertEquals(stats.nodes, ai.nodeCount());
+        ai.stop();
+    }
+
+    @Test
+    public void monteCarloTest() {
+        Board b = new Board();
+        MonteCarlo mcts = new MonteCarlo();
+        int move = mcts.findMove(b, 2000, AI.NO_LIMIT);
+        assertTrue(b.isLegal(Move.mv(move)));
+        assertEquals(2000, mcts.iterationCount());
+        assertEquals(move, new MonteCarlo().findMove(b, 2000, AI.NO_LIMIT));
+        int size = mcts.treeSize();
+        assertTrue(size > 1);
+
+        b.makeMove(move);
+        int reply = mcts.findMove(b, 0, AI.NO_LIMIT);
+        assertTrue(b.isLegal(Move.mv(reply)));
+        assertTrue(mcts.treeSize() > 1 && mcts.treeSize() < size);
+
+        MonteCarlo small = new MonteCarlo();
+        small.setTreeSize(4L * Board.MAX_MOVES * MonteCarlo.NODE_BYTES);
+        small.setThreads(2);
+        reply = small.findMove(b, 3000, AI.NO_LIMIT);
+        assertTrue(b.isLegal(Move.mv(reply)));
+        assertTrue(small.treeSize() <= 4 * Board.MAX_MOVES);
+        assertEquals(3000, small.iterationCount());
+    }
+
+    /** Return the value of B for the side to move, searched to DEPTH
+     *  levels by plain minimax, with the same leaves as AI's search:
+     *  static values (see AI.staticScore) from TERRITORY, wins for
+     *  positions decided by their regions according to ENDGAME, and no
+     *  moves in regions already settled. */
+    private static int minimax(Board b, int depth, Endgame endgame,
+                               Territory territory) {
+        Piece side = b.turn();
+        if (depth == 0 || b.winner() != Piece.EMPTY) {
+            int score = AI.staticScore(b, territory);
+            return side == Piece.WHITE ? score : -score;
+        }
+        if (endgame.analyze(b)) {
+            return endgame.winner(side) == side
+                ? AI.WINNING_VALUE : -AI.WINNING_VALUE;
+        }
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = b.generateMoves(side, moves);
+        if (endgame.hasReserves()) {
+            n = endgame.filterMoves(side, moves, n);
+        }
+        int best = -Integer.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            b.makeMove(moves[i]);
+            best = Math.max(best, -minimax(b, depth - 1, endgame, territory));
+            b.undo();
+        }
+        return best;
+    }
+
+    @Test
+    public void searchMatchesMinimaxTest() {
+        Random random = new Random(20);
+        AI single = new AI(), parallel = new AI();
+        parallel.setThreads(2);
+        Endgame endgame = new Endgame();
+        Territory territory = new Territory();
+        int[][] cases = { { 30, 2 }, { 40, 2 }, { 50, 2 }, { 50, 3 },
+                          { 55, 3 }, { 60, 3 }, { 64, 4 } };
+        for (int[] c : cases) {
+            Board b = BoardTest.randomPosition(random, c[0]);
+            if (b.winner() != Piece.EMPTY) {
+                continue;
+            }
+            int expected = minimax(b, c[1], endgame, territory);
+            for (AI ai : new AI[] { single, parallel }) {
+                int move = ai.findMove(b, c[1], AI.NO_LIMIT);
+                assertTrue(b.isLegal(Move.mv(move)));
+                assertEquals(expected, ai.searchScore());
+            }
+        }
+    }
 }
@@ -1,19 +1,33 @@
 package amazons;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
 
 import static amazons.Piece.*;
 
 
-/** The state of an Amazons Game.
+/** The state of an Amazons Game.  The contents of the board are kept as
+ *  three occupancy bitboards (white queens, black queens and spears) owned
+ *  by each Board, so that any number of independent Boards may exist at
+ *  once.  Square index K is bit K % 64 of word K / 64 of a layer.  The
+ *  occupancy is also kept one line (row, column or diagonal) per word, so
+ *  that the length of any ray up to the first occupied square is a single
+ *  bit scan (see reach).
  *  @author Eric Huang
  */
 class Board {
 
     /** The number of squares on a side of the board. */
     static final int SIZE = 10;
+    /** An upper bound on the number of legal moves in any position: four
+     *  queens, each with at most 35 queen moves, each followed by at
+     *  most 35 spear throws. */
+    static final int MAX_MOVES = 4 * 35 * 35;
     /** Decrement for toString function. */
     static final int DECREMENT = 20;
     /** Starting value for toString function. */
@@ -32,41 +46,69 @@ class Board {
 
     /** Copies MODEL into me. */
     void copy(Board model) {
+        if (model == this) {
+            return;
+        }
+        System.arraycopy(model._whiteBits, 0, _whiteBits, 0, WORDS);
+        System.arraycopy(model._blackBits, 0, _blackBits, 0, WORDS);
+        System.arraycopy(model._spearBits, 0, _spearBits, 0, WORDS);
+        for (int side = 0; side < 2; side++) {
+            setQueens(side, model._queens[side], model._queenCounts[side]);
+        }
+        System.arraycopy(model._lines, 0, _lines, 0, LINES);
         this._nummoves = model.numMoves();
-        this._moves = model.moves();
+        System.arraycopy(model._moves, 0, _moves, 0, _nummoves);
         this._turn = model.turn();
         this._winner = model.winner();
+        this._hash = model.hash();
+    }
+
+    /** Initializes a board holding the position recorded in SNAPSHOT. */
+    Board(Snapshot snapshot) {
+        restore(snapshot);
+    }
+
+    /** Return a snapshot of my current position, which does not change
+     *  as I do. */
+    Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /** Sets me to the position recorded in SNAPSHOT, including the moves
+     *  that led to it, without replaying them. */
+    void restore(Snapshot snapshot) {
+        System.arraycopy(snapshot._whiteBits, 0, _whiteBits, 0, WORDS);
+        System.arraycopy(snapshot._blackBits, 0, _blackBits, 0, WORDS);
+        System.arraycopy(snapshot._spearBits, 0, _spearBits, 0, WORDS);
+        setQueens(0, snapshot._whites, snapshot._whites.length);
+        setQueens(1, snapshot._blacks, snapshot._blacks.length);
+        System.arraycopy(snapshot._lines, 0, _lines, 0, LINES);
+        _nummoves = snapshot._moves.length;
+        System.arraycopy(snapshot._moves, 0, _moves, 0, _nummoves);
+        _turn = snapshot._turn;
+        _winner = snapshot._winner;
+        _hash = snapshot._hash;
     }
 
     /** Clears the board to the initial position. */
     void init() {
-        for (int i = 0; i < 100; i++) {
-            Square.sq(i).setpiece(EMPTY);
-        }
-        _whites = new ArrayList<Square>();
-        _blacks = new ArrayList<Square>();
-
-        Square.sq("a4").setpiece(WHITE);
-        _whites.add(Square.sq("a4"));
-        Square.sq("d1").setpiece(WHITE);
-        _whites.add(Square.sq("d1"));
-        Square.sq("g1").setpiece(WHITE);
-        _whites.add(Square.sq("g1"));
-        Square.sq("j4").setpiece(WHITE);
-        _whites.add(Square.sq("j4"));
-        Square.sq("a7").setpiece(BLACK);
-        _blacks.add(Square.sq("a7"));
-        Square.sq("d10").setpiece(BLACK);
-        _blacks.add(Square.sq("d10"));
-        Square.sq("g10").setpiece(BLACK);
-        _blacks.add(Square.sq("g10"));
-        Square.sq("j7").setpiece(BLACK);
-        _blacks.add(Square.sq("j7"));
+        for (int k = 0; k < WORDS; k++) {
+            _whiteBits[k] = _blackBits[k] = _spearBits[k] = 0;
+        }
+        _queenCounts[0] = _queenCounts[1] = 0;
+        computeLines();
+
+        for (String posn : new String[] { "a4", "d1", "g1", "j4" }) {
+            set(WHITE, Square.sq(posn).index());
+        }
+        for (String posn : new String[] { "a7", "d10", "g10", "j7" }) {
+            set(BLACK, Square.sq(posn).index());
+        }
 
         _turn = WHITE;
         _winner = EMPTY;
+        _hash = computeHash();
         _nummoves = 0;
-        _moves = new ArrayList<Move>();
     }
 
     /** Return the Piece whose move it is (WHITE or BLACK). */
@@ -80,19 +122,87 @@ class Board {
         return _nummoves;
     }
 
-    /** Returns arraylist with positions of all white queens. */
+    /** Returns a new list of the positions of all white queens, in the
+     *  order of queen(WHITE, K). */
     ArrayList<Square> whites() {
-        return _whites;
+        return squares(_queens[0], _queenCounts[0]);
     }
 
-    /** Returns arraylist with positions of all black queens. */
+    /** Returns a new list of the positions of all black queens, in the
+     *  order of queen(BLACK, K). */
     ArrayList<Square> blacks() {
-        return _blacks;
+        return squares(_queens[1], _queenCounts[1]);
+    }
+
+    /** Return the number of SIDE's queens. */
+    int queenCount(Piece side) {
+        return _queenCounts[side == WHITE ? 0 : 1];
+    }
+
+    /** Return the index of the square holding SIDE's queen number K,
+     *  where 0 <= K < queenCount(SIDE).  A queen keeps its number as it
+     *  moves (and as its moves are undone). */
+    int queen(Piece side, int k) {
+        return _queens[side == WHITE ? 0 : 1][k];
+    }
+
+    /** Return a new list of the squares with the first N indices in
+     *  INDICES. */
+    private static ArrayList<Square> squares(int[] indices, int n) {
+        ArrayList<Square> result = new ArrayList<Square>(n);
+        for (int k = 0; k < n; k++) {
+            result.add(Square.sq(indices[k]));
+        }
+        return result;
     }
 
-    /** Return the array of moves that have been made. */
+    /** Return the list of moves that have been made. */
     ArrayList<Move> moves() {
-        return _moves;
+        ArrayList<Move> result = new ArrayList<Move>(_nummoves);
+        for (int k = 0; k < _nummoves; k++) {
+            result.add(Move.mv(_moves[k]));
+        }
+        return result;
+    }
+
+    /** Return the packed code (see Move.code) of move number K, where
+     *  0 <= K < numMoves(). */
+    int move(int k) {
+        return _moves[k];
+    }
+
+    /** Return the Zobrist key of the current position: the contents of
+     *  every square and the side to move. */
+    long hash() {
+        return _hash;
+    }
+
+    /** Return the Zobrist key of the current position, computed from
+     *  scratch rather than incrementally. */
+    long computeHash() {
+        long result = _turn == BLACK ? BLACK_TO_MOVE : 0;
+        for (int k = 0; k < WORDS; k++) {
+            result ^= zobrist(WHITE, _whiteBits[k], k)
+                ^ zobrist(BLACK, _blackBits[k], k)
+                ^ zobrist(SPEAR, _spearBits[k], k);
+        }
+        return result;
+    }
+
+    /** Return the Zobrist key for piece P on the square with index INDEX
+     *  (0 for EMPTY). */
+    private static long zobrist(Piece p, int index) {
+        return ZOBRIST[p.ordinal() * SIZE * SIZE + index];
+    }
+
+    /** Return the combined Zobrist keys for piece P on each square in
+     *  word K of a bitboard, whose value is BITS. */
+    private static long zobrist(Piece p, long bits, int k) {
+        long result = 0;
+        for (; bits != 0; bits &= bits - 1) {
+            result ^= zobrist(p, 64 * k + Long.numberOfTrailingZeros(bits));
+        }
+        return result;
     }
 
     /** Return the winner in the current position, or null if the game is
@@ -103,13 +213,35 @@ class Board {
 
     /** Return the contents the square at S. */
     final Piece get(Square s) {
-        return s.getpiece();
+        return get(s.index());
+    }
+
+    /** Return the contents of the square with index INDEX. */
+    final Piece get(int index) {
+        return get(_whiteBits, _blackBits, _spearBits, index);
+    }
+
+    /** Return the contents of the square with index INDEX on a board
+     *  whose white queens, black queens and spears occupy WHITES, BLACKS
+     *  and SPEARS. */
+    private static Piece get(long[] whites, long[] blacks, long[] spears,
+                             int index) {
+        int k = index >>> 6;
+        long bit = 1L << index;
+        if ((whites[k] & bit) != 0) {
+            return WHITE;
+        } else if ((blacks[k] & bit) != 0) {
+            return BLACK;
+        } else if ((spears[k] & bit) != 0) {
+            return SPEAR;
+        }
+        return EMPTY;
     }
 
     /** Return the contents of the square at (COL, ROW), where
      *  0 <= COL, ROW <= 9. */
     final Piece get(int col, int row) {
-        return Square.sq(row, col).getpiece();
+        return get(Square.sq(row, col));
     }
 
     /** Return the contents of the square at COL ROW. */
@@ -121,12 +253,12 @@ class Board {
     final void put(Piece p, Square s) {
         int row = s.col();
         int col = s.row();
-        Square.sq(col, row).setpiece(p);
+        set(p, Square.sq(col, row).index());
     }
 
     /** Set square (COL, ROW) to P. */
     final void put(Piece p, int col, int row) {
-        Square.sq(col, row).setpiece(p);
+        set(p, Square.sq(col, row).index());
     }
 
     /** Set square COL ROW to P. */
@@ -140,62 +272,70 @@ class Board {
      *  squares along it, other than FROM and ASEMPTY, must be
      *  empty. ASEMPTY may be null, in which case it has no effect. */
     boolean isUnblockedMove(Square from, Square to, Square asEmpty) {
-        if (!from.isQueenMove(to)) {
+        int f = from.index(), t = to.index();
+        if (!from.isQueenMove(to) || !isEmpty(t)) {
             return false;
         }
-        int direction = from.direction(to);
-        int col = from.col();
-        int row = from.row();
-        Square place = from;
-        if (!to.getpiece().equals(Piece.EMPTY)) {
-            return false;
-        }
-        while (!place.equals(to)) {
-            if (direction == 7 || direction < 2) {
-                col++;
-            } else if (direction > 2 && direction < 6) {
-                col--;
-            }
-            if (direction > 0 && direction < 4) {
-                row++;
-            } else if (direction > 4 && direction < 8) {
-                row--;
-            }
-            place = Square.sq(col, row);
-            if (!place.getpiece().equals(Piece.EMPTY)
-                    && !place.equals(asEmpty)) {
-                return false;
-            }
+        long occ0 = ~emptyWord(0), occ1 = ~emptyWord(1);
+        if (asEmpty != null && asEmpty.index() < 64) {
+            occ0 &= ~(1L << asEmpty.index());
+        } else if (asEmpty != null) {
+            occ1 &= ~(1L << asEmpty.index());
         }
-        return true;
+        return (Square.between(f, t, 0) & occ0) == 0
+            && (Square.between(f, t, 1) & occ1) == 0;
     }
 
     /** Returns number of free spaces around FROM. */
     public int free(Square from) {
-        int oldcol = from.col();
-        int oldrow = from.row();
-        int result = 0;
-        for (int col = oldcol - 1; col < oldcol + 2; col++) {
-            for (int row = oldrow - 1; row < (oldrow + 2); row++) {
-                if (Square.exists(col, row)
-                        && Square.sq(col, row) != Square.sq(oldcol, oldrow)
-                        && Square.sq(col, row).getpiece().equals(Piece.EMPTY)) {
-                    result++;
-                }
-            }
+        return free(from.index());
+    }
+
+    /** Returns number of free spaces around the square with index
+     *  INDEX. */
+    int free(int index) {
+        return Long.bitCount(NEIGHBORS[2 * index] & emptyWord(0))
+            + Long.bitCount(NEIGHBORS[2 * index + 1] & emptyWord(1));
+    }
+
+    /** Return the number of empty squares in a line from the square with
+     *  index INDEX in direction DIR (see Square.ray), up to the first
+     *  occupied square or the edge of the board.  This does not depend
+     *  on the contents of INDEX itself.  Takes constant time. */
+    int reach(int index, int dir) {
+        int linePos = LINE_POS[4 * index + (dir & 3)];
+        int occupied = _lines[linePos >>> 4], pos = linePos & 15;
+        if (dir < 4) {
+            return Integer.numberOfTrailingZeros(occupied >>> (pos + 1));
         }
-        return result;
+        return pos - 32
+            + Integer.numberOfLeadingZeros(occupied & ((1 << pos) - 1));
     }
 
-    /** Return true iff FROM is a valid starting square for a move. */
-    boolean isLegal(Square from) {
-        int oldcol = from.col();
-        int oldrow = from.row();
-        for (int col = oldcol - 1; col < oldcol + 2; col++) {
-            for (int row = oldrow - 1; row < (oldrow + 2); row++) {
-                if (Square.exists(col, row)
-                        && Square.sq(col, row) != Square.sq(oldcol, oldrow)
-                        && Square.sq(col, row).getpiece().equals(Piece.EMPTY)) {
+    /** Return the number of squares a queen on the square with index
+     *  INDEX could move to (not counting spear throws).  Takes constant
+     *  time. */
+    int queenMoves(int index) {
+        int n = 0;
+        for (int dir = 0; dir < 8; dir++) {
+            n += reach(index, dir);
+        }
+        return n;
+    }
+
+    /** Return true iff SIDE has a legal move, regardless of whose turn it
+     *  is.  A queen with an empty neighbor can always step there and throw
+     *  its spear back, so this checks only the queens' neighborhoods.
+     *  Takes time proportional to the number of queens and allocates
+     *  nothing. */
+    boolean hasMove(Piece side) {
+        long[] queens = side == WHITE ? _whiteBits : _blackBits;
+        long empty0 = emptyWord(0), empty1 = emptyWord(1);
+        for (int k = 0; k < WORDS; k++) {
+            for (long q = queens[k]; q != 0; q &= q - 1) {
+                int i = 64 * k + Long.numberOfTrailingZeros(q);
+                if ((NEIGHBORS[2 * i] & empty0) != 0
+                    || (NEIGHBORS[2 * i + 1] & empty1) != 0) {
                     return true;
                 }
             }
@@ -203,6 +343,13 @@ class Board {
         return false;
     }
 
+    /** Return true iff FROM is a valid starting square for a move. */
+    boolean isLegal(Square from) {
+        int i = from.index();
+        return (NEIGHBORS[2 * i] & emptyWord(0)) != 0
+            || (NEIGHBORS[2 * i + 1] & emptyWord(1)) != 0;
+    }
+
     /** Return true iff FROM-TO is a valid first part of move, ignoring
      *  spear throwing. */
     boolean isLegal(Square from, Square to) {
@@ -212,7 +359,7 @@ class Board {
     /** Return true iff FROM-TO(SPEAR) is a legal move in the current
      *  position. */
     boolean isLegal(Square from, Square to, Square spear) {
-        if (isLegal(from, to) && from.getpiece().equals(_turn)
+        if (isLegal(from, to) && get(from) == _turn
                 && _winner.equals(Piece.EMPTY)) {
             if (spear.equals(from)) {
                 return true;
@@ -229,56 +376,65 @@ class Board {
         return isLegal(move.from(), move.to(), move.spear());
     }
 
-    /** Move FROM-TO(SPEAR), assuming this is a legal move. */
+    /** Move FROM-TO(SPEAR), if this is a legal move.  Otherwise, does
+     *  nothing. */
     void makeMove(Square from, Square to, Square spear) {
-        Move move = Move.mv(from, to, spear);
-        makeMove(move);
+        if (isLegal(from, to, spear)) {
+            makeMove(Move.code(from.index(), to.index(), spear.index()));
+        }
     }
 
-    /** Move according to MOVE, assuming it is a legal move. */
+    /** Move according to MOVE, if it is a legal move.  Otherwise, does
+     *  nothing. */
     void makeMove(Move move) {
-        if (isLegal(move.from(), move.to(), move.spear())) {
-            move.to().setpiece(move.from().getpiece());
-            move.from().setpiece(Piece.EMPTY);
-            move.spear().setpiece(Piece.SPEAR);
-            _nummoves++;
-            _moves.add(move);
-            if (_turn.equals(Piece.WHITE)) {
-                _whites.remove(move.from());
-                _whites.add(move.to());
-            } else if (_turn.equals(Piece.BLACK)) {
-                _blacks.remove(move.from());
-                _blacks.add(move.to());
-            }
-            if (!legalMoves(_turn.opponent()).hasNext()) {
-                _winner = _turn;
-            }
-            _turn = _turn.opponent();
-        } else {
-            return;
+        makeMove(move.from(), move.to(), move.spear());
+    }
+
+    /** Move according to the packed move MOVE (see Move.code), which must
+     *  be legal.  This is the engine's path, for moves it generated
+     *  itself, so legality is only asserted; moves from elsewhere go
+     *  through makeMove(Move), which checks. */
+    void makeMove(int move) {
+        int from = Move.from(move), to = Move.to(move),
+            spear = Move.spear(move);
+        assert isLegal(Square.sq(from), Square.sq(to), Square.sq(spear));
+        long[] queens = _turn == WHITE ? _whiteBits : _blackBits;
+        toggle(queens, from);
+        toggle(queens, to);
+        toggle(_spearBits, spear);
+        toggleLines(from, to, spear);
+        _hash ^= zobrist(_turn, from) ^ zobrist(_turn, to)
+            ^ zobrist(SPEAR, spear) ^ BLACK_TO_MOVE;
+        _moves[_nummoves] = move;
+        _nummoves++;
+        moveQueen(_turn, from, to);
+        if (!hasMove(_turn.opponent())) {
+            _winner = _turn;
         }
+        _turn = _turn.opponent();
+        assert _hash == computeHash();
     }
 
     /** Undo one move.  Has no effect on the initial board. */
     void undo() {
-        if (_moves.isEmpty()) {
+        if (_nummoves == 0) {
             return;
         }
-        Move move = _moves.get(_moves.size() - 1);
-        _moves.remove(_moves.size() - 1);
         _nummoves--;
+        int move = _moves[_nummoves];
+        Square from = Square.sq(Move.from(move)),
+            to = Square.sq(Move.to(move));
         _winner = Piece.EMPTY;
         _turn = _turn.opponent();
-        move.spear().setpiece(Piece.EMPTY);
-        move.from().setpiece(move.to().getpiece());
-        move.to().setpiece(Piece.EMPTY);
-        if (_turn.equals(Piece.WHITE)) {
-            _whites.remove(move.to());
-            _whites.add(move.from());
-        } else if (_turn.equals(Piece.BLACK)) {
-            _blacks.remove(move.to());
-            _blacks.add(move.from());
-        }
+        long[] queens = _turn == WHITE ? _whiteBits : _blackBits;
+        toggle(_spearBits, Move.spear(move));
+        toggle(queens, to.index());
+        toggle(queens, from.index());
+        toggleLines(from.index(), to.index(), Move.spear(move));
+        _hash ^= zobrist(_turn, from.index()) ^ zobrist(_turn, to.index())
+            ^ zobrist(SPEAR, Move.spear(move)) ^ BLACK_TO_MOVE;
+        moveQueen(_turn, to.index(), from.index());
+        assert _hash == computeHash();
     }
 
     /** Return an Iterator over the Squares that are reachable by an
@@ -303,74 +459,142 @@ class Board {
         return new LegalMoveIterator(side);
     }
 
+    /** Store the packed codes (see Move.code) of all legal moves for SIDE
+     *  (regardless of whose turn it is) into BUFFER, starting at index 0,
+     *  and return the number of moves stored.  BUFFER must have room for
+     *  MAX_MOVES entries.  Moves are in the same order as legalMoves(SIDE).
+     *  Allocates nothing. */
+    int generateMoves(Piece side, int[] buffer) {
+        long[] queens = side == WHITE ? _whiteBits : _blackBits;
+        int n = 0;
+        for (int k = 0; k < WORDS; k++) {
+            for (long q = queens[k]; q != 0; q &= q - 1) {
+                int from = 64 * k + Long.numberOfTrailingZeros(q);
+                for (int dir = 0; dir < 8; dir++) {
+                    int[] ray = Square.ray(from, dir);
+                    int len = reach(from, dir), back = reach(from, dir ^ 4);
+                    for (int i = 0; i < len; i++) {
+                        // A spear thrown back toward FROM may fly through
+                        // it and on as far as the queen could have moved.
+                        n = addSpears(from, ray[i], dir ^ 4, i + 1 + back,
+                                      buffer, n);
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    /** Return the number of legal moves for SIDE (regardless of whose turn
+     *  it is): the number of moves generateMoves(SIDE, ...) would store,
+     *  counted without listing them (see countLegalMovesFrom). */
+    int countLegalMoves(Piece side) {
+        long[] queens = side == WHITE ? _whiteBits : _blackBits;
+        int n = 0;
+        for (int k = 0; k < WORDS; k++) {
+            for (long q = queens[k]; q != 0; q &= q - 1) {
+                int from = 64 * k + Long.numberOfTrailingZeros(q);
+                n += countLegalMovesFrom(from);
+            }
+        }
+        return n;
+    }
+
+    /** Return the number of legal moves of the queen on the square with
+     *  index FROM (or that a queen would have there): for each square it
+     *  can move to, the number of squares a queen there could reach with
+     *  FROM empty, which are its spear throws.  Throws along the ray of
+     *  a move number the same from every destination on it, so they are
+     *  counted in constant time per ray; throws across it cost six reach
+     *  lookups per destination.  So this takes time proportional to the number
+     *  of squares the queen can move to, but none proportional to the
+     *  number of its moves.  Changes nothing. */
+    int countLegalMovesFrom(int from) {
+        int n = 0;
+        for (int dir = 0; dir < 8; dir++) {
+            int[] ray = Square.ray(from, dir);
+            int len = reach(from, dir), back = reach(from, dir ^ 4);
+            // From the destination K squares along the ray, a spear may
+            // fly LEN - K squares on and K + BACK back, through FROM:
+            // LEN + BACK in all.
+            n += len * (len + back);
+            for (int i = 0; i < len; i++) {
+                for (int turn = 1; turn < 4; turn++) {
+                    int cross = (dir + turn) & 3;
+                    n += reach(ray[i], cross) + reach(ray[i], cross + 4);
+                }
+            }
+        }
+        return n;
+    }
+
+    /** Store the packed codes of the moves FROM-TO(SPEAR) for each SPEAR
+     *  reachable from TO, once FROM is empty, into BUFFER, starting at N.
+     *  BACK is the direction from TO toward FROM, and BACKLEN is the
+     *  reach of TO in that direction with FROM empty.  Return the new
+     *  number of entries in BUFFER. */
+    private int addSpears(int from, int to, int back, int backLen,
+                          int[] buffer, int n) {
+        for (int dir = 0; dir < 8; dir++) {
+            int[] ray = Square.ray(to, dir);
+            int len = dir == back ? backLen : reach(to, dir);
+            for (int i = 0; i < len; i++) {
+                buffer[n] = Move.code(from, to, ray[i]);
+                n++;
+            }
+        }
+        return n;
+    }
+
     /** An iterator used by reachableFrom. */
     private class ReachableFromIterator implements Iterator<Square> {
 
         /** Iterator of all squares reachable by queen move from FROM,
          *  treating ASEMPTY as empty. */
         ReachableFromIterator(Square from, Square asEmpty) {
-            _from = from;
+            _from = from.index();
             _dir = 0;
-            _steps = 1;
-            _asEmpty = asEmpty;
+            _steps = 0;
+            _ray = Square.ray(_from, 0);
+            _asEmpty = asEmpty == null ? -1 : asEmpty.index();
         }
 
         @Override
         public boolean hasNext() {
             while (_dir < 8) {
-                int col = _from.nextCol(_dir, _steps);
-                int row = _from.nextRow(_dir, _steps);
-                if (Square.exists(col, row)
-                        && (Square.sq(col, row).getpiece().equals(Piece.EMPTY)
-                        || Square.sq(col, row).equals(_asEmpty))
-                ) {
+                if (_steps < _ray.length && (isEmpty(_ray[_steps])
+                                             || _ray[_steps] == _asEmpty)) {
                     return true;
                 }
                 _dir++;
-                _steps = 1;
+                _steps = 0;
+                if (_dir < 8) {
+                    _ray = Square.ray(_from, _dir);
+                }
             }
             return false;
         }
 
         @Override
         public Square next() {
-            Square next = null;
-            while (next == null) {
-                try {
-                    next = _from.queenMove(_dir, _steps);
-                    toNext();
-                } catch (IllegalArgumentException exc) {
-                    toNext();
-                }
+            if (!hasNext()) {
+                throw new NoSuchElementException();
             }
-
-            if (!next.getpiece().equals(Piece.EMPTY)
-                    && !next.equals(_asEmpty)) {
-                _dir++;
-                _steps = 1;
-                return next();
-            }
-            return next;
-        }
-
-        /** Advance _dir and _steps, so that the next valid Square is
-         *  _steps steps in direction _dir from _from. */
-        private void toNext() {
+            Square next = Square.sq(_ray[_steps]);
             _steps++;
-            if (_steps > 10) {
-                _dir++;
-                _steps = 1;
-            }
+            return next;
         }
 
-        /** Starting square. */
-        private Square _from;
+        /** Index of the starting square. */
+        private int _from;
         /** Current direction. */
         private int _dir;
-        /** Current distance. */
+        /** Number of squares of _ray already returned. */
         private int _steps;
-        /** Square treated as empty. */
-        private Square _asEmpty;
+        /** The ray in direction _dir from _from. */
+        private int[] _ray;
+        /** Index of square treated as empty, or -1. */
+        private int _asEmpty;
     }
 
     /** An iterator used by legalMoves. */
@@ -386,7 +610,7 @@ class Board {
             _queens = new ArrayList<Square>();
             while (_startingSquares.hasNext()) {
                 Square sqr = _startingSquares.next();
-                if (sqr.getpiece().equals(_fromPiece) && isLegal(sqr)) {
+                if (get(sqr) == _fromPiece && isLegal(sqr)) {
                     _queens.add(sqr);
                 }
             }
@@ -439,11 +663,227 @@ class Board {
         private ArrayList<Square> _queens;
     }
 
+    /** An immutable record of the position on a Board: the contents of
+     *  its squares, its queens, the side to move, the moves that led to
+     *  it, and its Zobrist key.  Unlike a Board, a Snapshot may be shared
+     *  by any number of threads (search workers, the GUI) without
+     *  copying, and a Board may be set to it with restore. */
+    static final class Snapshot {
+
+        /** A snapshot of the position on BOARD. */
+        private Snapshot(Board board) {
+            _whiteBits = board._whiteBits.clone();
+            _blackBits = board._blackBits.clone();
+            _spearBits = board._spearBits.clone();
+            _whites = Arrays.copyOf(board._queens[0], board._queenCounts[0]);
+            _blacks = Arrays.copyOf(board._queens[1], board._queenCounts[1]);
+            _lines = board._lines.clone();
+            _moves = Arrays.copyOf(board._moves, board._nummoves);
+            _turn = board._turn;
+            _winner = board._winner;
+            _hash = board._hash;
+        }
+
+        /** Return the Piece whose move it is (WHITE or BLACK). */
+        Piece turn() {
+            return _turn;
+        }
+
+        /** Return the number of moves that led to this position. */
+        int numMoves() {
+            return _moves.length;
+        }
+
+        /** Return the Zobrist key of this position (see Board.hash). */
+        long hash() {
+            return _hash;
+        }
+
+        /** Return the contents of the square with index INDEX. */
+        Piece get(int index) {
+            return Board.get(_whiteBits, _blackBits, _spearBits, index);
+        }
+
+        /** Return the contents of the square at S. */
+        Piece get(Square s) {
+            return get(s.index());
+        }
+
+        /** Return a new list of the positions of the white queens. */
+        List<Square> whites() {
+            return squares(_whites, _whites.length);
+        }
+
+        /** Return a new list of the positions of the black queens. */
+        List<Square> blacks() {
+            return squares(_blacks, _blacks.length);
+        }
+
+        /** Return the number of SIDE's queens. */
+        int queenCount(Piece side) {
+            return side == WHITE ? _whites.length : _blacks.length;
+        }
+
+        /** Return the index of the square holding SIDE's queen number K
+         *  (see Board.queen). */
+        int queen(Piece side, int k) {
+            return side == WHITE ? _whites[k] : _blacks[k];
+        }
+
+        /** Occupancy of white queens. */
+        private final long[] _whiteBits;
+        /** Occupancy of black queens. */
+        private final long[] _blackBits;
+        /** Occupancy of spears. */
+        private final long[] _spearBits;
+        /** Square indices of the white queens, in order. */
+        private final int[] _whites;
+        /** Square indices of the black queens, in order. */
+        private final int[] _blacks;
+        /** Line occupancy (see Board._lines). */
+        private final int[] _lines;
+        /** Packed codes of the moves that led to this position. */
+        private final int[] _moves;
+        /** Piece whose turn it is. */
+        private final Piece _turn;
+        /** Cached winner (see Board._winner). */
+        private final Piece _winner;
+        /** Zobrist key. */
+        private final long _hash;
+    }
+
+    /** Return true iff the square with index INDEX is empty. */
+    private boolean isEmpty(int index) {
+        return (emptyWord(index >>> 6) & (1L << index)) != 0;
+    }
+
+    /** Return word K of the set of empty squares. */
+    long emptyWord(int k) {
+        return ~(_whiteBits[k] | _blackBits[k] | _spearBits[k]) & VALID[k];
+    }
+
+    /** Return word K of the set of squares holding SIDE's queens. */
+    long queenWord(Piece side, int k) {
+        return side == WHITE ? _whiteBits[k] : _blackBits[k];
+    }
+
+    /** Set the square with index INDEX to P. */
+    private void set(Piece p, int index) {
+        Piece old = get(index);
+        if (old == WHITE || old == BLACK) {
+            removeQueen(old == WHITE ? 0 : 1, index);
+        }
+        if (p == WHITE || p == BLACK) {
+            addQueen(p == WHITE ? 0 : 1, index);
+        }
+        _hash ^= zobrist(old, index) ^ zobrist(p, index);
+        int k = index >>> 6;
+        long bit = 1L << index;
+        _whiteBits[k] &= ~bit;
+        _blackBits[k] &= ~bit;
+        _spearBits[k] &= ~bit;
+        switch (p) {
+        case WHITE:
+            _whiteBits[k] |= bit;
+            break;
+        case BLACK:
+            _blackBits[k] |= bit;
+            break;
+        case SPEAR:
+            _spearBits[k] |= bit;
+            break;
+        default:
+            break;
+        }
+        if ((old == EMPTY) != (p == EMPTY)) {
+            toggleLines(index);
+        }
+    }
+
+    /** Bring _lines up to date after a move from the square with index
+     *  FROM to the one with index TO, throwing a spear to the one with
+     *  index SPEAR, has been made or undone. */
+    private void toggleLines(int from, int to, int spear) {
+        toggleLines(to);
+        if (spear != from) {
+            toggleLines(from);
+            toggleLines(spear);
+        }
+    }
+
+    /** Flip the bits for the square with index INDEX in the four lines
+     *  through it. */
+    private void toggleLines(int index) {
+        for (int axis = 0; axis < 4; axis++) {
+            int linePos = LINE_POS[4 * index + axis];
+            _lines[linePos >>> 4] ^= 1 << (linePos & 15);
+        }
+    }
+
+    /** Recompute _lines from the occupancy bitboards. */
+    private void computeLines() {
+        System.arraycopy(LINE_EDGES, 0, _lines, 0, LINES);
+        for (int index = 0; index < SIZE * SIZE; index++) {
+            if (!isEmpty(index)) {
+                toggleLines(index);
+            }
+        }
+    }
+
+    /** Move SIDE's queen on the square with index FROM to the square
+     *  with index TO, keeping its number. */
+    private void moveQueen(Piece side, int from, int to) {
+        int slot = _queenSlots[from];
+        _queens[side == WHITE ? 0 : 1][slot] = to;
+        _queenSlots[to] = (byte) slot;
+    }
+
+    /** Add a queen on the square with index INDEX to the queens of SIDE
+     *  (0 for WHITE, 1 for BLACK). */
+    private void addQueen(int side, int index) {
+        int n = _queenCounts[side];
+        if (n == _queens[side].length) {
+            _queens[side] = Arrays.copyOf(_queens[side], 2 * n);
+        }
+        _queens[side][n] = index;
+        _queenSlots[index] = (byte) n;
+        _queenCounts[side] = n + 1;
+    }
+
+    /** Remove the queen on the square with index INDEX from the queens of
+     *  SIDE (0 for WHITE, 1 for BLACK), giving its number to the last of
+     *  them. */
+    private void removeQueen(int side, int index) {
+        int n = _queenCounts[side] - 1, slot = _queenSlots[index];
+        int last = _queens[side][n];
+        _queens[side][slot] = last;
+        _queenSlots[last] = (byte) slot;
+        _queenCounts[side] = n;
+    }
+
+    /** Make the queens of SIDE (0 for WHITE, 1 for BLACK) the first N in
+     *  INDICES, in order. */
+    private void setQueens(int side, int[] indices, int n) {
+        if (n > _queens[side].length) {
+            _queens[side] = new int[n];
+        }
+        for (int k = 0; k < n; k++) {
+            _queens[side][k] = indices[k];
+            _queenSlots[indices[k]] = (byte) k;
+        }
+        _queenCounts[side] = n;
+    }
+
+    /** Flip the bit for the square with index INDEX in LAYER. */
+    private static void toggle(long[] layer, int index) {
+        layer[index >>> 6] ^= 1L << index;
+    }
+
     @Override
     public String toString() {
         String result = "  ";
         for (int i = STARTINGVAL; i >= 0; i++) {
-            result += " " + Square.sq(i).getpiece().toString();
+            result += " " + get(i).toString();
             if ((i % 10) == 9) {
                 result += "\n";
                 if (i != 9) {
@@ -455,6 +895,81 @@ class Board {
         return result;
     }
 
+    /** Number of 64-bit words in a bitboard layer. */
+    private static final int WORDS = 2;
+
+    /** The bits of each word that correspond to actual squares. */
+    private static final long[] VALID = {
+        -1L, (1L << (SIZE * SIZE - 64)) - 1
+    };
+
+    /** NEIGHBORS[2 * K + W] is word W of the set of squares adjacent
+     *  to the square with index K. */
+    private static final long[] NEIGHBORS = new long[2 * SIZE * SIZE];
+
+    static {
+        for (int i = 0; i < SIZE * SIZE; i++) {
+            Square from = Square.sq(i);
+            for (int j = 0; j < SIZE * SIZE; j++) {
+                Square to = Square.sq(j);
+                if (i != j && Math.abs(from.col() - to.col()) <= 1
+                        && Math.abs(from.row() - to.row()) <= 1) {
+                    NEIGHBORS[2 * i + (j >>> 6)] |= 1L << j;
+                }
+            }
+        }
+    }
+
+    /** Zobrist keys: ZOBRIST[P.ordinal() * SIZE * SIZE + K] is the key
+     *  for piece P on the square with index K.  The keys for EMPTY are 0.
+     *  The generator is seeded with a constant so that keys (and so any
+     *  stored hashes) are the same on every run. */
+    private static final long[] ZOBRIST =
+        new long[Piece.values().length * SIZE * SIZE];
+
+    /** Zobrist key for BLACK being the side to move. */
+    private static final long BLACK_TO_MOVE;
+
+    static {
+        Random keys = new Random(0x616d617a6f6e73L);
+        for (int i = SIZE * SIZE; i < ZOBRIST.length; i++) {
+            ZOBRIST[i] = keys.nextLong();
+        }
+        BLACK_TO_MOVE = keys.nextLong();
+    }
+
+    /** Number of lines of squares: rows, columns, and diagonals in both
+     *  directions. */
+    private static final int LINES;
+
+    /** LINE_POS[4 * K + A] is L << 4 | P, where the square with index K is
+     *  at position P of line L along axis A.  Axis A runs in direction A
+     *  (see Square.ray), in which positions increase. */
+    private static final int[] LINE_POS = new int[4 * SIZE * SIZE];
+
+    /** LINE_EDGES[L] has set exactly the bits past the end of line L. */
+    private static final int[] LINE_EDGES;
+
+    static {
+        int[] edges = new int[4 * SIZE * SIZE];
+        int lines = 0;
+        for (int axis = 0; axis < 4; axis++) {
+            for (int k = 0; k < SIZE * SIZE; k++) {
+                if (Square.ray(k, axis + 4).length == 0) {
+                    int[] ray = Square.ray(k, axis);
+                    LINE_POS[4 * k + axis] = lines << 4;
+                    for (int p = 0; p < ray.length; p++) {
+                        LINE_POS[4 * ray[p] + axis] = lines << 4 | (p + 1);
+                    }
+                    edges[lines] = -1 << (ray.length + 1);
+                    lines += 1;
+                }
+            }
+        }
+        LINES = lines;
+        LINE_EDGES = Arrays.copyOf(edges, lines);
+    }
+
     /** An empty iterator for initialization. */
     private static final Iterator<Square> NO_SQUARES =
         Collections.emptyIterator();
@@ -469,12 +984,41 @@ class Board {
     /** Number of moves that have been made. */
     private int _nummoves;
 
-    /** List of moves in order. */
-    private ArrayList<Move> _moves;
+    /** Packed codes of the moves made, in order.  Each move fills a
+     *  square with a spear, so no game is longer than this. */
+    private final int[] _moves = new int[SIZE * SIZE];
+
+    /** Square indices of the queens of each side: _queens[0][K], for
+     *  0 <= K < _queenCounts[0], are the white queens, and _queens[1][K]
+     *  the black ones.  A game has four on each side; positions set up
+     *  with put may have more, in which case the arrays grow. */
+    private final int[][] _queens = new int[2][4];
+
+    /** Occupancy of each line of squares (see LINE_POS), as of the
+     *  occupancy bitboards: bit P of _lines[L] is set iff the square at
+     *  position P of line L is occupied.  The bits beyond the end of each
+     *  line are always set, so that the edge acts as an occupied square.
+     *  A move changes at most three squares, so makeMove and undo update
+     *  at most twelve bits, and reach reads the distance to the nearest
+     *  occupied square in any direction from a single word. */
+    private final int[] _lines = new int[LINES];
+
+    /** Numbers of white and black queens. */
+    private final int[] _queenCounts = new int[2];
+
+    /** _queenSlots[I] is K if the square with index I holds queen K of
+     *  its side, and meaningless if it holds no queen. */
+    private final byte[] _queenSlots = new byte[SIZE * SIZE];
+
+    /** Zobrist key of the current position. */
+    private long _hash;
+
+    /** Occupancy of white queens. */
+    private final long[] _whiteBits = new long[WORDS];
 
-    /** Positions of all white queens. */
-    private ArrayList<Square> _whites;
+    /** Occupancy of black queens. */
+    private final long[] _blackBits = new long[WORDS];
 
-    /** Positions of all black queens. */
-    private ArrayList<Square> _blacks;
+    /** Occupancy of spears. */
+    private final long[] _spearBits = new long[WORDS];
 }
@@ -4,6 +4,7 @@ import org.junit.Test;
 import ucb.junit.textui;
 
 import java.util.Iterator;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -42,6 +43,22 @@ public class BoardTest {
         assertEquals(7, Square.sq("d2").direction(Square.sq("a5")));
     }
 
+    /** Tests the precomputed rays used for queen moves. **/
+    @Test
+    public void squareRayTest() {
+        assertEquals(Square.sq("d7"), Square.sq("d2").queenMove(0, 5));
+        assertEquals(Square.sq("a5"), Square.sq("d2").queenMove(7, 3));
+        assertNull(Square.sq("d2").queenMove(4, 2));
+        assertNull(Square.sq("d2").queenMove(8, 1));
+        assertEquals(9, Square.ray(Square.sq("a1").index(), 1).length);
+        assertEquals(0, Square.ray(Square.sq("a1").index(), 4).length);
+        assertEquals(-1, Square.direction(Square.sq("a1").index(),
+                                          Square.sq("b3").index()));
+        int from = Square.sq("a1").index(), to = Square.sq("j10").index();
+        assertEquals(8, Long.bitCount(Square.between(from, to, 0))
+                     + Long.bitCount(Square.between(from, to, 1)));
+    }
+
     /** Tests if move from square to another square is legal. Checks if
      * any pieces are in the way. **/
     @Test
@@ -59,6 +76,13 @@ public class BoardTest {
         b.makeMove(Square.sq("d1"), Square.sq("d2"), Square.sq("d3"));
         assertTrue(b.isLegal(Square.sq("a7"), Square.sq("a8"),
                 Square.sq("a6")));
+
+        long hash = b.hash();
+        b.makeMove(Move.mv("d2-d9(d8)"));
+        b.makeMove(Square.sq("d2"), Square.sq("d4"), Square.sq("d5"));
+        assertEquals(1, b.numMoves());
+        assertEquals(hash, b.hash());
+        assertEquals(Piece.BLACK, b.turn());
     }
 
     /** Tests if piece can move from square. **/
@@ -111,7 +135,8 @@ public class BoardTest {
         b.put(Piece.WHITE, Square.sq("h7"));
         b.put(Piece.WHITE, Square.sq("d9"));
         while (iter.hasNext()) {
-            iter.next().setpiece(Piece.SPEAR);
+            Square s = iter.next();
+            b.put(Piece.SPEAR, s.col(), s.row());
         }
         String map =
                 "   - - S B - - B - - -\n"
@@ -129,7 +154,8 @@ public class BoardTest {
         b = new Board();
         iter = b.reachableFrom(Square.sq("a1"), null);
         while (iter.hasNext()) {
-            iter.next().setpiece(Piece.SPEAR);
+            Square s = iter.next();
+            b.put(Piece.SPEAR, s.col(), s.row());
         }
 
         map =   "   - - - B - - B - - S\n"
@@ -149,7 +175,8 @@ public class BoardTest {
         b.makeMove(Square.sq("g10"), Square.sq("e10"), Square.sq("a6"));
         iter = b.reachableFrom(Square.sq("g5"), null);
         while (iter.hasNext()) {
-            iter.next().setpiece(Piece.SPEAR);
+            Square s = iter.next();
+            b.put(Piece.SPEAR, s.col(), s.row());
         }
 
         map =   "   - S - B B - - - - -\n"
@@ -182,13 +209,274 @@ public class BoardTest {
         Board b = new Board();
         b.makeMove(Square.sq("d1"), Square.sq("d4"), Square.sq("b4"));
         b.makeMove(Square.sq("a7"), Square.sq("a6"), Square.sq("a5"));
-        assertEquals("[d10, g10, j7, a6]", b.blacks().toString());
-        assertEquals("[a4, g1, j4, d4]", b.whites().toString());
+        assertEquals("[a6, d10, g10, j7]", b.blacks().toString());
+        assertEquals("[a4, d4, g1, j4]", b.whites().toString());
+        assertEquals(Square.sq("a6").index(), b.queen(Piece.BLACK, 0));
+        b.undo();
+        assertEquals("[a7, d10, g10, j7]", b.blacks().toString());
+        assertEquals("[a4, d4, g1, j4]", b.whites().toString());
+        b.undo();
+        assertEquals("[a7, d10, g10, j7]", b.blacks().toString());
+        assertEquals("[a4, d1, g1, j4]", b.whites().toString());
+
+        b.put(Piece.EMPTY, 3, 0);   // a4
+        b.put(Piece.BLACK, 4, 4);   // e5
+        assertEquals("[j4, d1, g1]", b.whites().toString());
+        assertEquals("[a7, d10, g10, j7, e5]", b.blacks().toString());
+        assertEquals(5, b.queenCount(Piece.BLACK));
+        b.put(Piece.WHITE, 6, 0);   // a7
+        assertEquals("[e5, d10, g10, j7]", b.blacks().toString());
+        assertEquals("[j4, d1, g1, a7]", b.whites().toString());
+    }
+
+    /** Checks that boards and their copies do not share state. **/
+    @Test
+    public void independentBoardsTest() {
+        Board b = new Board();
+        Board c = new Board(b);
+        b.makeMove(Square.sq("d1"), Square.sq("d4"), Square.sq("b4"));
+        assertEquals(Piece.WHITE, b.get(Square.sq("d4")));
+        assertEquals(Piece.SPEAR, b.get(Square.sq("b4")));
+        assertEquals(Piece.EMPTY, c.get(Square.sq("d4")));
+        assertEquals(Piece.WHITE, c.get(Square.sq("d1")));
+        assertEquals(0, c.numMoves());
+        assertEquals(UnitTest.INIT_BOARD_STATE, c.toString());
+
+        c.copy(b);
+        b.undo();
+        assertEquals(UnitTest.INIT_BOARD_STATE, b.toString());
+        assertEquals(1, c.numMoves());
+        assertEquals(Piece.BLACK, c.turn());
+        assertEquals(Piece.SPEAR, c.get(Square.sq("b4")));
+    }
+
+    /** Checks the incrementally kept reach of every square against ray
+     *  walks, at the ends of random games and through their undoing. **/
+    @Test
+    public void reachTest() {
+        Random random = new Random(24);
+        for (int game = 0; game < 5; game++) {
+            Board b = randomPosition(random, Integer.MAX_VALUE);
+            checkReach(b);
+            while (b.numMoves() > 0) {
+                b.undo();
+                checkReach(b);
+                checkReach(new Board(b.snapshot()));
+            }
+        }
+        Board b = new Board();
+        b.put(Piece.SPEAR, 4, 4);   // e5
+        b.put(Piece.EMPTY, 3, 0);   // a4
+        checkReach(b);
+        assertEquals(3, b.reach(Square.sq("e1").index(), 0));
+        assertEquals(5, b.reach(Square.sq("a1").index(), 0));
+    }
+
+    /** Checks countLegalMoves, for each side and each queen, against the
+     *  moves of the iterator, through random games undone from their
+     *  ends. **/
+    @Test
+    public void countLegalMovesTest() {
+        Random random = new Random(25);
+        for (int game = 0; game < 5; game++) {
+            Board b = randomPosition(random, Integer.MAX_VALUE);
+            while (true) {
+                for (Piece side : new Piece[] { Piece.WHITE, Piece.BLACK }) {
+                    int[] perQueen = new int[100];
+                    int total = 0;
+                    for (Iterator<Move> iter = b.legalMoves(side);
+                         iter.hasNext(); total++) {
+                        perQueen[iter.next().from().index()] += 1;
+                    }
+                    assertEquals(total, b.countLegalMoves(side));
+                    for (int k = 0; k < b.queenCount(side); k++) {
+                        int q = b.queen(side, k);
+                        assertEquals(perQueen[q], b.countLegalMovesFrom(q));
+                    }
+                }
+                if (b.numMoves() == 0) {
+                    break;
+                }
+                b.undo();
+            }
+            checkReach(b);
+        }
+        Board b = new Board();
+        assertEquals(Perft.INITIAL[1], b.countLegalMoves(Piece.WHITE));
+        assertEquals(Perft.INITIAL[1], b.countLegalMoves(Piece.BLACK));
+        b.countLegalMovesFrom(Square.sq("e5").index());
+        checkReach(b);
+    }
+
+    /** Check B.reach and B.queenMoves at every square. */
+    private static void checkReach(Board b) {
+        for (int i = 0; i < 100; i++) {
+            int total = 0;
+            for (int dir = 0; dir < 8; dir++) {
+                int n = 0;
+                for (int sq : Square.ray(i, dir)) {
+                    if (b.get(sq) != Piece.EMPTY) {
+                        break;
+                    }
+                    n++;
+                }
+                assertEquals(n, b.reach(i, dir));
+                total += n;
+            }
+            assertEquals(total, b.queenMoves(i));
+        }
+    }
+
+    /** Checks that snapshots do not change with their boards, and that
+     *  boards restored from them match the originals, history included. **/
+    @Test
+    public void snapshotTest() {
+        Board b = new Board();
+        b.makeMove(Square.sq("d1"), Square.sq("d4"), Square.sq("b4"));
+        Board.Snapshot s = b.snapshot();
+        String position = b.toString();
+        b.makeMove(Square.sq("d10"), Square.sq("d6"), Square.sq("f6"));
+        assertEquals(1, s.numMoves());
+        assertEquals(Piece.BLACK, s.turn());
+        assertEquals(Piece.WHITE, s.get(Square.sq("d4")));
+        assertEquals(Piece.EMPTY, s.get(Square.sq("f6")));
+        assertEquals(Piece.BLACK, s.get(Square.sq("d10")));
+        assertTrue(s.blacks().contains(Square.sq("d10")));
+        assertTrue(s.whites().contains(Square.sq("d4")));
+
+        Board c = new Board(s);
+        assertEquals(position, c.toString());
+        assertEquals(s.hash(), c.hash());
+        assertEquals(c.computeHash(), c.hash());
+        assertEquals(b.move(0), c.move(0));
+        b.restore(s);
+        assertEquals(position, b.toString());
+        assertEquals(Piece.BLACK, b.turn());
+        assertEquals(b.blacks(), s.blacks());
         b.undo();
-        assertEquals("[d10, g10, j7, a7]", b.blacks().toString());
-        assertEquals("[a4, g1, j4, d4]", b.whites().toString());
+        assertEquals(UnitTest.INIT_BOARD_STATE, b.toString());
+        assertEquals(Piece.WHITE, s.get(Square.sq("d4")));
+    }
+
+    /** Checks that generateMoves produces exactly the moves of
+     *  legalMoves, in the same order. **/
+    @Test
+    public void generateMovesTest() {
+        Board b = new Board();
+        int[] buffer = new int[Board.MAX_MOVES];
+        assertEquals(2176, b.generateMoves(Piece.WHITE, buffer));
+        b.makeMove(Square.sq("d1"), Square.sq("d7"), Square.sq("g7"));
+        b.makeMove(Square.sq("j7"), Square.sq("j5"), Square.sq("j6"));
+        b.makeMove(Square.sq("a4"), Square.sq("c6"), Square.sq("a4"));
+        assertEquals(3, b.numMoves());
+        for (Piece side : new Piece[] { Piece.WHITE, Piece.BLACK }) {
+            int n = b.generateMoves(side, buffer);
+            Iterator<Move> iter = b.legalMoves(side);
+            for (int i = 0; i < n; i++) {
+                assertTrue(iter.hasNext());
+                assertSame(iter.next(), Move.mv(buffer[i]));
+            }
+            assertFalse(iter.hasNext());
+        }
+    }
+
+    /** Checks the incrementally maintained position key. **/
+    @Test
+    public void hashTest() {
+        Board b = new Board();
+        long initial = b.hash();
+        assertEquals(b.computeHash(), initial);
+        b.makeMove(Square.sq("d1"), Square.sq("d7"), Square.sq("g7"));
+        assertNotEquals(initial, b.hash());
+        assertEquals(b.computeHash(), b.hash());
+        long afterOne = b.hash();
+        b.makeMove(Square.sq("j7"), Square.sq("j5"), Square.sq("j6"));
+        assertEquals(b.computeHash(), b.hash());
+        b.undo();
+        assertEquals(afterOne, b.hash());
         b.undo();
-        assertEquals("[d10, g10, j7, a7]", b.blacks().toString());
-        assertEquals("[a4, g1, j4, d1]", b.whites().toString());
+        assertEquals(initial, b.hash());
+
+        Board c = new Board();
+        c.makeMove(Square.sq("d1"), Square.sq("d2"), Square.sq("d3"));
+        c.makeMove(Square.sq("j7"), Square.sq("j6"), Square.sq("j5"));
+        c.makeMove(Square.sq("g1"), Square.sq("g2"), Square.sq("g3"));
+        Board d = new Board();
+        d.makeMove(Square.sq("g1"), Square.sq("g2"), Square.sq("g3"));
+        d.makeMove(Square.sq("j7"), Square.sq("j6"), Square.sq("j5"));
+        d.makeMove(Square.sq("d1"), Square.sq("d2"), Square.sq("d3"));
+        assertEquals(c.hash(), d.hash());
+        d.undo();
+        assertNotEquals(c.hash(), d.hash());
+    }
+
+    /** Checks perft counts from the initial position against their
+     *  reference values, with one thread and several.  The full depth-3
+     *  count (Perft.INITIAL[3]) takes too long for a unit test, so depth 3
+     *  is checked below a few first moves. **/
+    @Test
+    public void perftTest() {
+        Board b = new Board();
+        for (int depth = 0; depth <= 2; depth++) {
+            assertEquals(Perft.INITIAL[depth], Perft.perft(b, depth));
+        }
+        assertEquals(Perft.INITIAL[2], Perft.perft(b, 2, 3));
+        assertEquals(new Board().hash(), b.hash());
+
+        String[] moves = { "d1-d2(d3)", "d1-d2(d4)", "g1-e3(c5)",
+                           "j4-e9(a9)" };
+        long[] counts = { 4018070, 3295625, 4126810, 4235765 };
+        for (int i = 0; i < moves.length; i++) {
+            b.makeMove(Move.mv(moves[i]));
+            assertEquals(counts[i], Perft.perft(b, 2));
+            b.undo();
+        }
+
+        int[] first = new int[Board.MAX_MOVES];
+        long[] divided = Perft.divide(b, 2, 1, first);
+        assertEquals(2176, divided.length);
+        long total = 0;
+        for (int i = 0; i < divided.length; i++) {
+            total += divided[i];
+            b.makeMove(first[i]);
+            assertEquals(divided[i], Perft.perft(b, 1));
+            b.undo();
+        }
+        assertEquals(Perft.INITIAL[2], total);
+    }
+
+    /** Checks hasMove against the move iterator, through whole random
+     *  games undone from the positions where they end. **/
+    @Test
+    public void hasMoveTest() {
+        Random random = new Random(11);
+        for (int game = 0; game < 5; game++) {
+            Board b = randomPosition(random, Integer.MAX_VALUE);
+            assertFalse(b.hasMove(b.turn()));
+            assertEquals(b.turn().opponent(), b.winner());
+            while (true) {
+                for (Piece side : new Piece[] { Piece.WHITE, Piece.BLACK }) {
+                    assertEquals(b.legalMoves(side).hasNext(),
+                                 b.hasMove(side));
+                }
+                if (b.numMoves() == 0) {
+                    break;
+                }
+                b.undo();
+            }
+        }
+    }
+
+    /** Return a board reached by making PLIES random legal moves, chosen
+     *  with RANDOM, from the initial position (or fewer, if the game ends
+     *  first). */
+    static Board randomPosition(Random random, int plies) {
+        Board board = new Board();
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int k = 0; k < plies && board.winner() == Piece.EMPTY; k++) {
+            int n = board.generateMoves(board.turn(), moves);
+            board.makeMove(moves[random.nextInt(n)]);
+        }
+        return board;
     }
 }
@@ -90,14 +90,14 @@ class BoardWidget extends Pad {
     }
 
     @Override
-    public synchronized void paintComponent(Graphics2D g) {
+    public void paintComponent(Graphics2D g) {
+        Board.Snapshot position = _position;
         super.paintComponent(g);
         drawGrid(g);
-        for (Square queen : _board.whites()) {
-            drawQueen(g, queen, Piece.WHITE);
-        }
-        for (Square queen : _board.blacks()) {
-            drawQueen(g, queen, Piece.BLACK);
+        for (Piece side : new Piece[] { WHITE, BLACK }) {
+            for (int k = 0; k < position.queenCount(side); k++) {
+                drawQueen(g, sq(position.queen(side, k)), side);
+            }
         }
     }
 
@@ -125,8 +125,8 @@ class BoardWidget extends Pad {
     }
 
     /** Revise the displayed board according to BOARD. */
-    synchronized void update(Board board) {
-        _board.copy(board);
+    void update(Board board) {
+        _position = board.snapshot();
         repaint();
     }
 
@@ -164,8 +164,8 @@ class BoardWidget extends Pad {
 
     /** Queue on which to post move commands (from mouse clicks). */
     private ArrayBlockingQueue<String> _commands;
-    /** Board being displayed. */
-    private final Board _board = new Board();
+    /** Position being displayed. */
+    private volatile Board.Snapshot _position = new Board().snapshot();
 
     /** Image of white queen. */
     private BufferedImage _whiteQueen;
@@ -40,17 +40,22 @@ final class Controller {
         _playing = true;
         _winner = null;
         _board.init();
+        resetClocks();
         _white = _manualPlayerTemplate.create(WHITE, this);
         _black = _autoPlayerTemplate.create(BLACK, this);
         while (_playing) {
             _view.update(_board);
             String command;
             if (_winner == null) {
-                if (_board.turn() == WHITE) {
+                Piece side = _board.turn();
+                long start = System.currentTimeMillis();
+                if (side == WHITE) {
                     command = _white.myMove();
                 } else {
                     command = _black.myMove();
                 }
+                _timeUsed[side.ordinal()] +=
+                    System.currentTimeMillis() - start;
             } else {
                 command = _nonPlayer.myMove();
                 if (command == null) {
@@ -63,6 +68,8 @@ final class Controller {
                 reportError("Error: %s%n", excp.getMessage());
             }
         }
+        _white.stop();
+        _black.stop();
         if (_logFile != null) {
             _logFile.close();
         }
@@ -74,6 +81,75 @@ final class Controller {
         return _board;
     }
 
+    /** Limit each move to MOVEMILLIS milliseconds and each side's moves in
+     *  a game to GAMEMILLIS milliseconds in total.  A limit of 0 means
+     *  no limit. */
+    void setTimeLimits(long moveMillis, long gameMillis) {
+        _moveTimeLimit = moveMillis;
+        _gameTimeLimit = gameMillis;
+    }
+
+    /** Return the time limit for a single move in milliseconds, or 0 if
+     *  there is none. */
+    long moveTimeLimit() {
+        return _moveTimeLimit;
+    }
+
+    /** Return the number of milliseconds SIDE has left for the rest of the
+     *  current game, or Long.MAX_VALUE if there is no game time limit. */
+    long timeRemaining(Piece side) {
+        if (_gameTimeLimit == 0) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, _gameTimeLimit - _timeUsed[side.ordinal()]);
+    }
+
+    /** Return the number of milliseconds SIDE has spent choosing moves in
+     *  the current game. */
+    long timeUsed(Piece side) {
+        return _timeUsed[side.ordinal()];
+    }
+
+    /** Play one game between WHITE and BLACK, which must be Players
+     *  created for this Controller, starting from the position reached by
+     *  PLIES random legal moves (chosen with randInt) from the initial
+     *  position.  Reads no input and does not update the view.  A player
+     *  loses if it returns anything other than a legal move, or if it
+     *  runs out of time for the game.  Return the winner. */
+    Piece playGame(Player white, Player black, int plies) {
+        _board.init();
+        _winner = null;
+        resetClocks();
+        _white = white;
+        _black = black;
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int k = 0; k < plies && _board.winner() == EMPTY; k++) {
+            int n = _board.generateMoves(_board.turn(), moves);
+            _board.makeMove(moves[randInt(n)]);
+        }
+        try {
+            while (_board.winner() == EMPTY) {
+                Piece side = _board.turn();
+                long start = System.currentTimeMillis();
+                String command =
+                    side == WHITE ? white.myMove() : black.myMove();
+                _timeUsed[side.ordinal()] +=
+                    System.currentTimeMillis() - start;
+                Move move = command == null ? null : Move.mv(command);
+                if (move == null || !_board.isLegal(move)
+                    || timeRemaining(side) == 0) {
+                    return side.opponent();
+                }
+                _board.makeMove(move);
+            }
+        } finally {
+            white.stop();
+            black.stop();
+        }
+        _winner = _board.winner();
+        return _winner;
+    }
+
     /** Return a random integer in the range 0 inclusive to U, exclusive.
      *  Available for use by AIs that use random selections in some cases.
      *  Once setRandomSeed is called with a particular value, this method
@@ -143,6 +219,9 @@ final class Controller {
         new Command("quit$", this::doQuit),
         new Command("seed\\s+(\\d+)$", this::doSeed),
         new Command("dump$", this::doDump),
+        new Command("time\\s+(\\d+)\\s+(\\d+)$", this::doTime),
+        new Command("perft\\s+(\\d+)(\\s+divide)?$", this::doPerft),
+        new Command("stats(\\s+(on|off))?$", this::doStats),
         new Command("new$", this::doNew),
         new Command("undo$", this::doUndo),
         new Command("(manual\\s(((b|B)(l|L)(a|A)(c|C)(k|K))|"
@@ -183,8 +262,65 @@ final class Controller {
 
     /** Command "new". */
     private void doNew(Matcher unused) {
+        _white.stop();
+        _black.stop();
         _board.init();
         _winner = null;
+        resetClocks();
+    }
+
+    /** Command "time MOVE GAME", where MOVE and GAME, the first and
+     *  second groups of MAT, are the time limits in seconds for each move
+     *  and for each side's moves in a game (0 for no limit). */
+    private void doTime(Matcher mat) {
+        try {
+            setTimeLimits(Long.parseLong(mat.group(1)) * 1000,
+                          Long.parseLong(mat.group(2)) * 1000);
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
+    }
+
+    /** Command "perft N [divide]", where N, the first group of MAT, is
+     *  the number of moves in the sequences counted from the current
+     *  position, and the second group, if present, asks for the count
+     *  below each first move.  Uses all available processors. */
+    private void doPerft(Matcher mat) {
+        int depth;
+        try {
+            depth = Integer.parseInt(mat.group(1));
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
+        Perft.report(new Board(_board), depth,
+                     Runtime.getRuntime().availableProcessors(),
+                     mat.group(2) != null);
+    }
+
+    /** Command "stats [on|off]".  With no argument (the second group of
+     *  MAT), reports the statistics of the last search by each automated
+     *  player.  With "on" or "off", switches the reporting of search
+     *  statistics after every automated move (see AI.setStatistics) on or
+     *  off. */
+    private void doStats(Matcher mat) {
+        Player[] players = { _autoPlayerTemplate, _white, _black };
+        for (Player player : players) {
+            if (!(player instanceof AI)) {
+                continue;
+            }
+            AI ai = (AI) player;
+            if (mat.group(2) != null) {
+                ai.setStatistics(mat.group(2).equals("on"));
+            } else if (player != _autoPlayerTemplate) {
+                _reporter.reportNote("%s stats %s",
+                                     player.myPiece().toName(), ai.stats());
+            }
+        }
+    }
+
+    /** Start both sides' game clocks from zero. */
+    private void resetClocks() {
+        _timeUsed[WHITE.ordinal()] = _timeUsed[BLACK.ordinal()] = 0;
     }
 
     /** Command "quit". */
@@ -210,8 +346,10 @@ final class Controller {
     private void doManual(Matcher mat) {
         String player = mat.group().substring(7);
         if (player.equals("black")) {
+            _black.stop();
             _black = _manualPlayerTemplate.create(BLACK, this);
         } else {
+            _white.stop();
             _white = _manualPlayerTemplate.create(WHITE, this);
         }
     }
@@ -220,8 +358,10 @@ final class Controller {
     private void doAuto(Matcher mat) {
         String player = mat.group().substring(5);
         if (player.equals("black")) {
+            _black.stop();
             _black = _autoPlayerTemplate.create(BLACK, this);
         } else {
+            _white.stop();
             _white = _autoPlayerTemplate.create(WHITE, this);
         }
     }
@@ -275,6 +415,14 @@ final class Controller {
     /** The object that is displaying the current game. */
     private View _view;
 
+    /** Time limits for a move and for one side's moves in a game, in
+     *  milliseconds, or 0 if unlimited. */
+    private long _moveTimeLimit, _gameTimeLimit;
+
+    /** Milliseconds each side (indexed by ordinal) has spent choosing
+     *  moves in the current game. */
+    private long[] _timeUsed = new long[Piece.values().length];
+
     /** My pseudo-random number generator. */
     private Random _randGen = new Random();
 
@@ -0,0 +1,669 @@
+package amazons;
+
+import static amazons.Piece.*;
+
+/** An analysis of positions in which spears have split the board into
+ *  regions: sets of empty squares and queens connected to each other by
+ *  king steps (see region), found by flood fills over the board's
+ *  occupancy bitboards (see Board.emptyWord).  No move can reach from
+ *  one region into another, so the game is a sum of independent games,
+ *  one per region.
+ *  <p>
+ *  A region holding the queens of only one side (a settled region) is a
+ *  game in which only that side can move, so it is worth exactly the
+ *  greatest number of moves its queens can make in it: its fill.  Fills
+ *  are found by a memoized search of the region alone, with a limit on
+ *  its size.  The fills of each side's settled regions add up to a
+ *  reserve of moves that the other side cannot touch.
+ *  <ul>
+ *  <li> When every region is settled, the game is decided: the side to
+ *       move wins iff its reserve is greater than its opponent's, and its
+ *       best move is any that keeps the fill of its region as large as
+ *       possible.
+ *  <li> When there is exactly one region holding queens of both sides (a
+ *       mixed region), and every other region is settled and solved, the
+ *       game is the mixed region plus the two reserves.  A reserve move
+ *       answered by one of the opponent's leaves the game as it was, so
+ *       only the difference of the reserves matters: it is a number of
+ *       spare moves that one side may make instead of moving in the
+ *       mixed region.  A small enough mixed region is solved with its
+ *       spare moves by a memoized search of the region alone, which
+ *       decides the game.
+ *  <li> Otherwise, only the mixed regions need to be searched.  A move
+ *       in a settled region only spends a move of reserve, and no such
+ *       move is better than one that spends exactly one, so the search
+ *       needs just one move from all of a side's settled regions besides
+ *       its moves in mixed regions (see filterMoves).
+ *  </ul>
+ *  An Endgame keeps scratch state and a cache of solved regions, so each
+ *  search thread needs its own.
+ *  @author Eric Huang
+ */
+final class Endgame {
+
+    /** Greatest number of positions examined while solving one settled
+     *  region.  Regions that need more are treated as mixed. */
+    static final int SOLVE_LIMIT = 1 << 11;
+    /** Greatest number of empty squares in a settled region that is
+     *  solved.  Larger regions are treated as mixed. */
+    static final int MAX_EMPTY = 16;
+
+    /** Value of a move code denoting no move. */
+    static final int NO_MOVE = -1;
+
+    /** Return true iff the spear on the square with index SPEAR of BOARD
+     *  might split the region around it.  It cannot unless the squares
+     *  around SPEAR that are not spears (nor off the board) fall into
+     *  more than one group of squares joined by king steps around SPEAR,
+     *  since a path through SPEAR can otherwise go around it.  Takes
+     *  constant time. */
+    static boolean maySplit(Board board, int spear) {
+        int ring = 0;
+        for (int dir = 0; dir < 8; dir++) {
+            int[] ray = Square.ray(spear, dir);
+            if (ray.length > 0 && board.get(ray[0]) != SPEAR) {
+                ring |= 1 << dir;
+            }
+        }
+        return SPLITTING[ring];
+    }
+
+    /** Find and solve the regions of BOARD.  Return true iff every region
+     *  is settled and was solved, so that the game is decided (see
+     *  winner and reserveMove). */
+    boolean analyze(Board board) {
+        _regions = 0;
+        _reserve[0] = _reserve[1] = 0;
+        _open0 = _open1 = 0;
+        _mixedWinner = EMPTY;
+        _undividedEmpty = -1;
+        int mixed = 0;
+        long mixed0 = 0, mixed1 = 0;
+        long empty0 = board.emptyWord(0), empty1 = board.emptyWord(1);
+        long white0 = board.queenWord(WHITE, 0),
+            white1 = board.queenWord(WHITE, 1);
+        long queens0 = white0 | board.queenWord(BLACK, 0),
+            queens1 = white1 | board.queenWord(BLACK, 1);
+        long left0 = queens0, left1 = queens1;
+        while ((left0 | left1) != 0) {
+            if (left0 != 0) {
+                region(left0 & -left0, 0, empty0, empty1, queens0, queens1);
+            } else {
+                region(0, left1 & -left1, empty0, empty1, queens0, queens1);
+            }
+            long region0 = _region0, region1 = _region1;
+            left0 &= ~region0;
+            left1 &= ~region1;
+            long q0 = region0 & queens0, q1 = region1 & queens1;
+            long w0 = q0 & white0, w1 = q1 & white1;
+            Piece side;
+            if ((w0 | w1) == 0) {
+                side = BLACK;
+            } else if (w0 == q0 && w1 == q1) {
+                side = WHITE;
+            } else {
+                side = EMPTY;
+                mixed += 1;
+                mixed0 = region0;
+                mixed1 = region1;
+            }
+            int fill = -1;
+            if (side != EMPTY && _regions < MAX_REGIONS) {
+                fill = solveRegion(q0, q1, region0 & empty0,
+                                   region1 & empty1);
+            }
+            if (fill < 0) {
+                _open0 |= region0;
+                _open1 |= region1;
+            } else {
+                int r = _regions;
+                _side[r] = side;
+                _queens[2 * r] = q0;
+                _queens[2 * r + 1] = q1;
+                _empty[2 * r] = region0 & empty0;
+                _empty[2 * r + 1] = region1 & empty1;
+                _fill[r] = fill;
+                _regionSlot[r] = _slot;
+                _reserve[side == WHITE ? 0 : 1] += fill;
+                _regions += 1;
+            }
+        }
+        if (mixed == 1 && _open0 == mixed0 && _open1 == mixed1) {
+            int empty = Long.bitCount(mixed0 & empty0)
+                + Long.bitCount(mixed1 & empty1);
+            if (_regions == 0) {
+                _undividedEmpty = empty;
+            }
+            if (empty <= MAX_EMPTY) {
+                solveMixed(board, mixed0 & empty0, mixed1 & empty1);
+            }
+        }
+        return (_open0 | _open1) == 0;
+    }
+
+    /** Return the number of empty squares in the last position analyzed,
+     *  among those reachable from its queens, if all its queens were in
+     *  one mixed region, or -1 if they were not. */
+    int undividedEmpty() {
+        return _undividedEmpty;
+    }
+
+    /** Return true iff the last position analyzed had at least one solved
+     *  settled region, so that filterMoves may remove moves. */
+    boolean hasReserves() {
+        return _regions > 0;
+    }
+
+    /** Return the total fill of SIDE's solved settled regions in the last
+     *  position analyzed. */
+    int reserve(Piece side) {
+        return _reserve[side == WHITE ? 0 : 1];
+    }
+
+    /** Return the winner of the last position analyzed, assuming that it
+     *  was decided and that TURN is to move. */
+    Piece winner(Piece turn) {
+        if (_mixedWinner != EMPTY) {
+            return _mixedWinner;
+        }
+        return reserve(turn) > reserve(turn.opponent()) ? turn
+            : turn.opponent();
+    }
+
+    /** Return the packed code of a best move for TURN, to move in the last
+     *  position analyzed, assuming that it was decided: with a mixed
+     *  region, a winning move if there is one, and otherwise (or if there
+     *  is a winning reserve move) reserveMove(TURN). */
+    int bestMove(Piece turn) {
+        if (_mixedWinner != EMPTY) {
+            _budget = SOLVE_LIMIT;
+            _searches += 1;
+            _bestMove = NO_MOVE;
+            wins(_mixed[0], _mixed[1], _mixed[2], _mixed[3], _mixed[4],
+                 _mixed[5], _spare, true);
+            if (_bestMove != NO_MOVE && _bestMove != PASS) {
+                return _bestMove;
+            }
+        }
+        return reserveMove(turn);
+    }
+
+    /** Return the packed code (see Move.code) of a move for SIDE in one of
+     *  its solved settled regions in the last position analyzed that
+     *  reduces the region's fill by exactly one, or NO_MOVE if SIDE has
+     *  no such region with a move. */
+    int reserveMove(Piece side) {
+        for (int r = 0; r < _regions; r++) {
+            if (_side[r] == side && _fill[r] > 0) {
+                int slot = _regionSlot[r];
+                long key = key(_queens[2 * r], _queens[2 * r + 1],
+                               _empty[2 * r], _empty[2 * r + 1]);
+                if (_regionKeys[slot] == key
+                    && _regionMoves[slot] != NO_MOVE) {
+                    return _regionMoves[slot];
+                }
+                _budget = SOLVE_LIMIT;
+                _bestMove = NO_MOVE;
+                solve(_queens[2 * r], _queens[2 * r + 1],
+                      _empty[2 * r], _empty[2 * r + 1], _fill[r]);
+                if (_regionKeys[slot] == key) {
+                    _regionMoves[slot] = _bestMove;
+                }
+                return _bestMove;
+            }
+        }
+        return NO_MOVE;
+    }
+
+    /** Remove from the first N entries of MOVES, legal moves for SIDE in
+     *  the last position analyzed, those in solved settled regions, and
+     *  add one reserveMove(SIDE) in their place, if there is one.  Return
+     *  the new number of moves.  The remaining moves keep their order. */
+    int filterMoves(Piece side, int[] moves, int n) {
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            int from = Move.from(moves[i]);
+            if (((from < 64 ? _open0 : _open1) & (1L << from)) != 0) {
+                moves[k] = moves[i];
+                k++;
+            }
+        }
+        int reserve = reserveMove(side);
+        if (reserve != NO_MOVE) {
+            moves[k] = reserve;
+            k++;
+        }
+        return k;
+    }
+
+    /** Set _region0 and _region1 to the regions containing the squares
+     *  in SEED0 and SEED1: the squares reachable from them by king steps
+     *  through the empty squares in EMPTY0 and EMPTY1 and the queens in
+     *  QUEENS0 and QUEENS1.  Queens next to each other are in the same
+     *  region, since either may move through the other's square once the
+     *  other leaves it. */
+    private void region(long seed0, long seed1, long empty0, long empty1,
+                        long queens0, long queens1) {
+        long open0 = empty0 | queens0, open1 = empty1 | queens1;
+        long region0 = seed0, region1 = seed1;
+        long front0 = seed0, front1 = seed1;
+        while ((front0 | front1) != 0) {
+            long up0 = front0 | (front0 << 1) & NOT_ROW0_0
+                | ((front0 >>> 1) | (front1 << 63)) & NOT_ROW9_0;
+            long up1 = front1 | ((front1 << 1) | (front0 >>> 63)) & NOT_ROW0_1
+                | (front1 >>> 1) & NOT_ROW9_1;
+            long next0 = (up0 | (up0 << 10) | (up0 >>> 10) | (up1 << 54))
+                & open0 & ~region0;
+            long next1 = (up1 | (up1 << 10) | (up0 >>> 54) | (up1 >>> 10))
+                & open1 & ~region1;
+            region0 |= next0;
+            region1 |= next1;
+            front0 = next0;
+            front1 = next1;
+        }
+        _region0 = region0;
+        _region1 = region1;
+    }
+
+    /** Return the fill of the settled region whose queens are QUEENS0 and
+     *  QUEENS1 and whose empty squares are EMPTY0 and EMPTY1, or -1 if it
+     *  is too large or needs more than SOLVE_LIMIT positions to solve.
+     *  Results, including failures, are kept in a cache of whole regions,
+     *  apart from the positions inside them, so that a region that stays
+     *  the same while the rest of the board changes is solved once.
+     *  Sets _slot to the region's entry in that cache. */
+    private int solveRegion(long queens0, long queens1, long empty0,
+                            long empty1) {
+        long key = key(queens0, queens1, empty0, empty1);
+        int slot = (int) key & REGION_MASK;
+        _slot = slot;
+        if (_regionKeys[slot] == key) {
+            return _regionFills[slot];
+        }
+        int fill = -1;
+        if (Long.bitCount(empty0) + Long.bitCount(empty1) <= MAX_EMPTY) {
+            _budget = SOLVE_LIMIT;
+            fill = solve(queens0, queens1, empty0, empty1);
+            if (_budget < 0) {
+                fill = -1;
+            }
+        }
+        _regionKeys[slot] = key;
+        _regionFills[slot] = fill;
+        _regionMoves[slot] = NO_MOVE;
+        return fill;
+    }
+
+    /** Decide BOARD, whose only region left open is mixed, with empty
+     *  squares EMPTY0 and EMPTY1, by solving that region together with the
+     *  side to move's spare moves (see wins).  If it is solved, sets
+     *  _mixedWinner and closes the region; otherwise, leaves them be. */
+    private void solveMixed(Board board, long empty0, long empty1) {
+        Piece turn = board.turn();
+        _mixed[0] = board.queenWord(turn, 0) & _open0;
+        _mixed[1] = board.queenWord(turn, 1) & _open1;
+        _mixed[2] = board.queenWord(turn.opponent(), 0) & _open0;
+        _mixed[3] = board.queenWord(turn.opponent(), 1) & _open1;
+        _mixed[4] = empty0;
+        _mixed[5] = empty1;
+        _spare = reserve(turn) - reserve(turn.opponent());
+        long key = mixedKey(_mixed[0], _mixed[1], _mixed[2], _mixed[3],
+                            empty0, empty1, _spare);
+        int slot = (int) key & REGION_MASK;
+        if (_regionKeys[slot] != key) {
+            _budget = SOLVE_LIMIT;
+            _searches += 1;
+            boolean win = wins(_mixed[0], _mixed[1], _mixed[2], _mixed[3],
+                               empty0, empty1, _spare, false);
+            _regionKeys[slot] = key;
+            _regionFills[slot] = _budget < 0 ? -1 : win ? 1 : 0;
+            _regionMoves[slot] = NO_MOVE;
+        }
+        if (_regionFills[slot] >= 0) {
+            _mixedWinner = _regionFills[slot] == 1 ? turn : turn.opponent();
+            _open0 = _open1 = 0;
+        }
+    }
+
+    /** Return the key of the mixed region with spare moves described by
+     *  the arguments, as for wins. */
+    private static long mixedKey(long mine0, long mine1, long theirs0,
+                                 long theirs1, long empty0, long empty1,
+                                 int spare) {
+        long key = key(mine0, mine1, empty0, empty1);
+        return mix(spare + mix(theirs0 + mix(theirs1 + key)));
+    }
+
+    /** Return true iff the side to move wins the game made of a mixed
+     *  region, in which its queens are MINE0 and MINE1, its opponent's are
+     *  THEIRS0 and THEIRS1 and the empty squares are EMPTY0 and EMPTY1,
+     *  together with SPARE moves it may make outside the region (or
+     *  -SPARE that its opponent may make, if SPARE is negative).  Results
+     *  are cached only for the rest of the current search (_searches), so
+     *  that whether a region is solved within the budget depends on the
+     *  region alone, and not on the searches before.  If ROOT, does not
+     *  take this position's result from the cache, and sets _bestMove to a
+     *  winning move, or to the first move tried if there is none, with
+     *  PASS standing for a spare move.  Leaves _budget negative if it gave
+     *  up. */
+    private boolean wins(long mine0, long mine1, long theirs0, long theirs1,
+                         long empty0, long empty1, int spare, boolean root) {
+        long key = mix(_searches + mixedKey(mine0, mine1, theirs0, theirs1,
+                                            empty0, empty1, spare));
+        int slot = (int) key & WIN_MASK;
+        if (!root && _winKeys[slot] == key) {
+            return _wins[slot];
+        }
+        _budget -= 1;
+        if (_budget < 0) {
+            return false;
+        }
+        boolean win = false;
+        if (spare > 0) {
+            if (root) {
+                _bestMove = PASS;
+            }
+            win = !wins(theirs0, theirs1, mine0, mine1, empty0, empty1,
+                        1 - spare, false);
+        }
+        search:
+        for (int k = 0; k < 2 && !win && _budget >= 0; k++) {
+            for (long q = k == 0 ? mine0 : mine1; q != 0; q &= q - 1) {
+                int from = 64 * k + Long.numberOfTrailingZeros(q);
+                long fromBit0 = from < 64 ? 1L << from : 0,
+                    fromBit1 = from < 64 ? 0 : 1L << from;
+                for (int dir = 0; dir < 8; dir++) {
+                    for (int to : Square.ray(from, dir)) {
+                        long toBit0 = to < 64 ? 1L << to : 0,
+                            toBit1 = to < 64 ? 0 : 1L << to;
+                        if (((empty0 & toBit0) | (empty1 & toBit1)) == 0) {
+                            break;
+                        }
+                        long free0 = (empty0 | fromBit0) & ~toBit0,
+                            free1 = (empty1 | fromBit1) & ~toBit1;
+                        long moved0 = mine0 & ~fromBit0 | toBit0,
+                            moved1 = mine1 & ~fromBit1 | toBit1;
+                        for (int dir2 = 0; dir2 < 8; dir2++) {
+                            for (int spear : Square.ray(to, dir2)) {
+                                long bit = 1L << spear;
+                                if (((spear < 64 ? free0 : free1) & bit)
+                                    == 0) {
+                                    break;
+                                }
+                                int move = Move.code(from, to, spear);
+                                if (root && _bestMove == NO_MOVE) {
+                                    _bestMove = move;
+                                }
+                                boolean lost = !wins(
+                                    theirs0, theirs1, moved0, moved1,
+                                    spear < 64 ? free0 & ~bit : free0,
+                                    spear < 64 ? free1 : free1 & ~bit,
+                                    -spare, false);
+                                if (_budget < 0) {
+                                    return false;
+                                }
+                                if (lost) {
+                                    win = true;
+                                    if (root) {
+                                        _bestMove = move;
+                                    }
+                                    break search;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        if (_budget < 0) {
+            return false;
+        }
+        _winKeys[slot] = key;
+        _wins[slot] = win;
+        return win;
+    }
+
+    /** Return the fill of the settled region whose queens are QUEENS0 and
+     *  QUEENS1 and whose empty squares are EMPTY0 and EMPTY1 (words 0 and
+     *  1 of bitboards), caching the fills of the positions it examines.
+     *  Empty squares that moves have cut off from the queens are dropped
+     *  first, so that they neither count toward the largest possible fill
+     *  nor distinguish otherwise equal positions in the cache.  Leaves
+     *  _budget negative if it gave up. */
+    private int solve(long queens0, long queens1, long empty0, long empty1) {
+        return solve(queens0, queens1, empty0, empty1, -1);
+    }
+
+    /** As for solve(QUEENS0, QUEENS1, EMPTY0, EMPTY1), but if TARGET is
+     *  not negative, also set _bestMove to the first move found whose
+     *  result has fill TARGET - 1, and stop there.  If there is none (or
+     *  the budget runs out), _bestMove is left at the first move tried,
+     *  if it was NO_MOVE. */
+    private int solve(long queens0, long queens1, long empty0, long empty1,
+                      int target) {
+        region(queens0, queens1, empty0, empty1, queens0, queens1);
+        empty0 &= _region0;
+        empty1 &= _region1;
+        int bound = Long.bitCount(empty0) + Long.bitCount(empty1);
+        if (bound == 0 || _budget < 0) {
+            return 0;
+        }
+        long key = key(queens0, queens1, empty0, empty1);
+        int slot = (int) key & CACHE_MASK;
+        if (target < 0 && _cacheKeys[slot] == key) {
+            return _cacheFills[slot];
+        }
+        _budget -= 1;
+        int best = 0;
+        search:
+        for (int k = 0; k < 2; k++) {
+            for (long q = k == 0 ? queens0 : queens1; q != 0; q &= q - 1) {
+                int from = 64 * k + Long.numberOfTrailingZeros(q);
+                long fromBit0 = from < 64 ? 1L << from : 0,
+                    fromBit1 = from < 64 ? 0 : 1L << from;
+                for (int dir = 0; dir < 8; dir++) {
+                    for (int to : Square.ray(from, dir)) {
+                        long toBit0 = to < 64 ? 1L << to : 0,
+                            toBit1 = to < 64 ? 0 : 1L << to;
+                        if (((empty0 & toBit0) | (empty1 & toBit1)) == 0) {
+                            break;
+                        }
+                        long free0 = (empty0 | fromBit0) & ~toBit0,
+                            free1 = (empty1 | fromBit1) & ~toBit1;
+                        long moved0 = queens0 & ~fromBit0 | toBit0,
+                            moved1 = queens1 & ~fromBit1 | toBit1;
+                        for (int dir2 = 0; dir2 < 8; dir2++) {
+                            for (int spear : Square.ray(to, dir2)) {
+                                long bit = 1L << spear;
+                                if (((spear < 64 ? free0 : free1) & bit)
+                                    == 0) {
+                                    break;
+                                }
+                                if (target >= 0 && _bestMove == NO_MOVE) {
+                                    _bestMove = Move.code(from, to, spear);
+                                }
+                                int fill = 1 + solve(
+                                    moved0, moved1,
+                                    spear < 64 ? free0 & ~bit : free0,
+                                    spear < 64 ? free1 : free1 & ~bit);
+                                if (_budget < 0) {
+                                    return 0;
+                                }
+                                if (fill == target) {
+                                    _bestMove = Move.code(from, to, spear);
+                                    return fill;
+                                }
+                                if (fill > best) {
+                                    best = fill;
+                                    if (best == bound) {
+                                        break search;
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        _cacheKeys[slot] = key;
+        _cacheFills[slot] = best;
+        return best;
+    }
+
+    /** Return a 64-bit key for the settled region with queens QUEENS0 and
+     *  QUEENS1 and empty squares EMPTY0 and EMPTY1. */
+    private static long key(long queens0, long queens1, long empty0,
+                            long empty1) {
+        return mix(queens0 + mix(queens1 + mix(empty0 + mix(empty1))));
+    }
+
+    /** Return the bits of X thoroughly mixed (the finalizer of
+     *  MurmurHash3).  Never returns 0 unless X is 0. */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+        x = (x ^ (x >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return x ^ (x >>> 33);
+    }
+
+    /** Value of _bestMove standing for a spare move (see wins). */
+    private static final int PASS = -2;
+
+    /** Log base 2 of the number of entries in the cache of fills. */
+    private static final int CACHE_BITS = 16;
+    /** Mask selecting a cache slot from a key. */
+    private static final int CACHE_MASK = (1 << CACHE_BITS) - 1;
+    /** Log base 2 of the number of entries in the cache of wins, enough
+     *  for the positions of one search of a mixed region. */
+    private static final int WIN_BITS = 12;
+    /** Mask selecting a slot in the cache of wins from a key. */
+    private static final int WIN_MASK = (1 << WIN_BITS) - 1;
+    /** Log base 2 of the number of entries in the cache of regions. */
+    private static final int REGION_BITS = 12;
+    /** Mask selecting a region cache slot from a key. */
+    private static final int REGION_MASK = (1 << REGION_BITS) - 1;
+
+    /** Words 0 and 1 of the set of squares not in row 0 (entered by steps
+     *  toward higher rows) and not in row 9. */
+    private static final long NOT_ROW0_0, NOT_ROW0_1, NOT_ROW9_0, NOT_ROW9_1;
+
+    static {
+        long notRow00 = 0, notRow01 = 0, notRow90 = 0, notRow91 = 0;
+        for (int i = 0; i < Board.SIZE * Board.SIZE; i++) {
+            int row = i % Board.SIZE;
+            if (row != 0) {
+                if (i < 64) {
+                    notRow00 |= 1L << i;
+                } else {
+                    notRow01 |= 1L << i;
+                }
+            }
+            if (row != Board.SIZE - 1) {
+                if (i < 64) {
+                    notRow90 |= 1L << i;
+                } else {
+                    notRow91 |= 1L << i;
+                }
+            }
+        }
+        NOT_ROW0_0 = notRow00;
+        NOT_ROW0_1 = notRow01;
+        NOT_ROW9_0 = notRow90;
+        NOT_ROW9_1 = notRow91;
+    }
+
+    /** SPLITTING[R] is true iff the squares around a square in the
+     *  directions D for which bit D of R is set fall into more than one
+     *  group joined by king steps around it (see maySplit). */
+    private static final boolean[] SPLITTING = new boolean[1 << 8];
+
+    static {
+        for (int ring = 0; ring < SPLITTING.length; ring++) {
+            int group = ring & -ring;
+            while (true) {
+                int grown = group;
+                for (int dir = 0; dir < 8; dir++) {
+                    if ((group & (1 << dir)) != 0) {
+                        grown |= 1 << ((dir + 1) & 7) | 1 << ((dir + 7) & 7);
+                        if (dir % 2 == 0) {
+                            grown |= 1 << ((dir + 2) & 7)
+                                | 1 << ((dir + 6) & 7);
+                        }
+                    }
+                }
+                grown &= ring;
+                if (grown == group) {
+                    break;
+                }
+                group = grown;
+            }
+            SPLITTING[ring] = group != ring;
+        }
+    }
+
+    /** Greatest number of solved settled regions recorded: one per queen
+     *  in a game.  Positions set up with Board.put may have more queens,
+     *  and so more regions; any beyond this many are treated as mixed. */
+    private static final int MAX_REGIONS = 8;
+
+    /** Keys of the cached fills (0 for an empty slot). */
+    private final long[] _cacheKeys = new long[1 << CACHE_BITS];
+    /** Cached fills, indexed like _cacheKeys. */
+    private final int[] _cacheFills = new int[1 << CACHE_BITS];
+    /** Keys of the regions in the region cache (0 for an empty slot). */
+    private final long[] _regionKeys = new long[1 << REGION_BITS];
+    /** Fills of the cached regions, or -1 for regions not solved.  For
+     *  mixed regions with spare moves (see wins), 1 if the side to move
+     *  wins and 0 if it loses. */
+    private final int[] _regionFills = new int[1 << REGION_BITS];
+    /** Cached reserveMove results for the cached regions, or NO_MOVE if
+     *  not yet found. */
+    private final int[] _regionMoves = new int[1 << REGION_BITS];
+    /** Keys of the positions in the cache of wins (0 for an empty slot),
+     *  each including the number of the search that stored it. */
+    private final long[] _winKeys = new long[1 << WIN_BITS];
+    /** Cached results of wins, indexed like _winKeys. */
+    private final boolean[] _wins = new boolean[1 << WIN_BITS];
+    /** Number of searches of mixed regions begun so far. */
+    private long _searches;
+
+    /** Number of solved settled regions in the last position analyzed. */
+    private int _regions;
+    /** The side owning each solved settled region. */
+    private final Piece[] _side = new Piece[MAX_REGIONS];
+    /** Words 0 and 1 of the queens of solved settled region R are at
+     *  indices 2R and 2R + 1. */
+    private final long[] _queens = new long[2 * MAX_REGIONS];
+    /** The empty squares of each solved settled region, stored like
+     *  _queens. */
+    private final long[] _empty = new long[2 * MAX_REGIONS];
+    /** The fill of each solved settled region. */
+    private final int[] _fill = new int[MAX_REGIONS];
+    /** The slot of each solved settled region in the region cache. */
+    private final int[] _regionSlot = new int[MAX_REGIONS];
+    /** Total fills of white's and black's solved settled regions. */
+    private final int[] _reserve = new int[2];
+    /** Words 0 and 1 of the squares of the regions that must still be
+     *  searched: mixed regions and settled regions too large to solve. */
+    private long _open0, _open1;
+
+    /** Winner of the last position analyzed, if it was decided by
+     *  solving its mixed region, or EMPTY. */
+    private Piece _mixedWinner = EMPTY;
+    /** The solved mixed region of the last position analyzed, as
+     *  arguments of wins: the queens of the side to move, its opponent's
+     *  and the empty squares, two words each. */
+    private final long[] _mixed = new long[6];
+    /** Spare moves of the side to move in the solved mixed region. */
+    private int _spare;
+    /** Value of undividedEmpty. */
+    private int _undividedEmpty;
+
+    /** Result of region. */
+    private long _region0, _region1;
+    /** Region cache slot set by solveRegion. */
+    private int _slot;
+    /** Number of positions solve may still examine before giving up. */
+    private int _budget;
+    /** Move found by solve when given a target. */
+    private int _bestMove;
+}
@@ -15,15 +15,26 @@ import ucb.util.CommandArgs;
  */
 public class Main {
 
-    /** The main program.  ARGS may contain the option --display. */
+    /** The main program.  ARGS may contain the option --display,
+     *  --hash=MB to set the size of the AI's transposition table (or of
+     *  its tree, with --mcts), --mcts to have the AI choose moves by Monte
+     *  Carlo tree search (see MonteCarlo) instead of alpha-beta search,
+     *  --threads=N to have the AI search with N threads, --book=FILE to
+     *  have the AI play from the opening book in FILE, --stats to have
+     *  the AI report the statistics of each search, --ponder to have the
+     *  AI search on its opponent's time, and
+     *  --movetime=SECS and --gametime=SECS to limit the time for each move
+     *  and for each side's moves in a game. */
     public static void main(String... args) {
 
         CommandArgs options =
-            new CommandArgs("--display --log={0,1} --={0,2}", args);
+            new CommandArgs("--display --log={0,1} --hash={0,1}"
+                            + " --threads={0,1} --book={0,1} --stats --ponder"
+                            + " --mcts"
+                            + " --movetime={0,1} --gametime={0,1}"
+                            + " --={0,2}", args);
         if (!options.ok()) {
-            System.err.println("Usage: java amazons.Main [--display]"
-                               + " [--log=FILE] [INPUT [OUTPUT]]");
-            System.exit(1);
+            usage();
         }
 
         List<String> files = options.get("--");
@@ -83,6 +94,72 @@ public class Main {
             }
         }
 
-        return new Controller(view, log, reporter, manualPlayer, new AI());
+        long tableBytes = AI.DEFAULT_TABLE_BYTES;
+        if (options.contains("--hash")) {
+            try {
+                tableBytes = Long.parseLong(options.getFirst("--hash")) << 20;
+            } catch (NumberFormatException excp) {
+                System.err.println("Bad table size");
+                usage();
+            }
+        }
+        int threads = 1;
+        if (options.contains("--threads")) {
+            try {
+                threads = Integer.parseInt(options.getFirst("--threads"));
+            } catch (NumberFormatException excp) {
+                threads = 0;
+            }
+            if (threads < 1) {
+                System.err.println("Bad thread count");
+                usage();
+            }
+        }
+        Player autoPlayer;
+        if (options.contains("--mcts")) {
+            MonteCarlo mcts = new MonteCarlo();
+            mcts.setTreeSize(tableBytes);
+            mcts.setThreads(threads);
+            autoPlayer = mcts;
+        } else {
+            AI ai = new AI();
+            ai.setTableSize(tableBytes);
+            ai.setThreads(threads);
+            if (options.contains("--book")) {
+                ai.setBook(new OpeningBook(options.getFirst("--book")));
+            }
+            ai.setStatistics(options.contains("--stats"));
+            ai.setPondering(options.contains("--ponder"));
+            autoPlayer = ai;
+        }
+
+        Controller result =
+            new Controller(view, log, reporter, manualPlayer, autoPlayer);
+        result.setTimeLimits(seconds(options, "--movetime") * 1000,
+                             seconds(options, "--gametime") * 1000);
+        return result;
+    }
+
+    /** Print a usage message on the standard error and exit. */
+    private static void usage() {
+        System.err.println("Usage: java amazons.Main [--display]"
+                           + " [--log=FILE] [--hash=MB] [--threads=N]"
+                           + " [--book=FILE] [--stats] [--ponder] [--mcts]"
+                           + " [--movetime=SECS] [--gametime=SECS]"
+                           + " [INPUT [OUTPUT]]");
+        System.exit(1);
+    }
+
+    /** Return the number of seconds given as the value of option NAME in
+     *  OPTIONS, or 0 if it is absent. */
+    private static long seconds(CommandArgs options, String name) {
+        if (!options.contains(name)) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(options.getFirst(name));
+        } catch (NumberFormatException excp) {
+            throw error("Bad time limit for %s", name);
+        }
     }
 }
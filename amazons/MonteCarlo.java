@@ -0,0 +1,650 @@
+package amazons;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static amazons.Piece.*;
+
+/** A Player that chooses moves by Monte Carlo tree search (UCT).  Each
+ *  iteration descends the tree of positions from the current one,
+ *  choosing at each node the child with the best upper confidence bound
+ *  on its mean reward, adds the children of the leaf it reaches once
+ *  that has been visited EXPAND_VISITS times, and scores the leaf by a
+ *  short random playout cut off by the static evaluator (see Territory).
+ *  The children of a node are kept in decreasing order of a heuristic
+ *  value (at the root, the static value of the position after each
+ *  move), and only the first few are considered, more as the node is
+ *  visited more often (progressive widening).  Positions other than the
+ *  root keep only their best MAX_CHILDREN children.
+ *
+ *  Several threads may share the tree.  Each counts its visit to a node
+ *  on the way down, before it knows the result, so that the others see
+ *  the node as less promising until the result arrives (a "virtual
+ *  loss").  The tree lives in arrays of a fixed size, allocated once, and
+ *  the part of it below the position reached by the time of my next move
+ *  is kept for that move, compacted to the front of the arrays; the rest
+ *  is recycled.  Iterations allocate nothing.
+ *  @author Eric Huang
+ */
+final class MonteCarlo extends Player {
+
+    /** Default memory budget of the tree in bytes. */
+    static final long DEFAULT_TREE_BYTES = 32L << 20;
+    /** Default number of iterations per move when there are no time
+     *  limits. */
+    static final int DEFAULT_ITERATIONS = 5000;
+    /** Bytes of storage per node of the tree. */
+    static final int NODE_BYTES = 6 * Integer.BYTES;
+
+    /** A new MonteCarlo with no piece or controller (intended to produce
+     *  a template). */
+    MonteCarlo() {
+        this(null, null);
+    }
+
+    /** A new MonteCarlo playing PIECE under control of CONTROLLER. */
+    MonteCarlo(Piece piece, Controller controller) {
+        super(piece, controller);
+        _capacity = (int) (DEFAULT_TREE_BYTES / NODE_BYTES);
+        _threads = 1;
+        _iterations = DEFAULT_ITERATIONS;
+    }
+
+    /** A new MonteCarlo playing PIECE under control of CONTROLLER, with
+     *  the same settings as TEMPLATE. */
+    private MonteCarlo(Piece piece, Controller controller,
+                       MonteCarlo template) {
+        this(piece, controller);
+        _capacity = template._capacity;
+        _threads = template._threads;
+        _iterations = template._iterations;
+    }
+
+    @Override
+    Player create(Piece piece, Controller controller) {
+        return new MonteCarlo(piece, controller, this);
+    }
+
+    /** Limit the tree of this player, and of players created from it, to
+     *  BYTES bytes. */
+    void setTreeSize(long bytes) {
+        long capacity = bytes / NODE_BYTES;
+        if (capacity < 2 * Board.MAX_MOVES) {
+            throw new IllegalArgumentException("tree too small");
+        }
+        _capacity = (int) Math.min(capacity, Integer.MAX_VALUE / 2);
+        _moves = null;
+    }
+
+    /** Search with THREADS threads in this player and players created
+     *  from it.  With one thread, searches are deterministic. */
+    void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("need at least one thread");
+        }
+        _threads = threads;
+        _workers = null;
+        _pool = null;
+    }
+
+    /** Run ITERATIONS iterations for each move when there are no time
+     *  limits, in this player and players created from it. */
+    void setIterations(int iterations) {
+        _iterations = iterations;
+    }
+
+    /** Return the number of iterations run by the last search. */
+    int iterationCount() {
+        return _iterationCount;
+    }
+
+    /** Return the number of iterations run by all my searches, each of
+     *  which visits one position outside the tree. */
+    @Override
+    long totalNodeCount() {
+        return _totalIterations;
+    }
+
+    /** Return the number of nodes in the tree. */
+    int treeSize() {
+        return _moves == null ? 0 : Math.min(_size.get(), _capacity);
+    }
+
+    @Override
+    String myMove() {
+        Board b = board();
+        long budget = AI.timeBudget(_controller, _myPiece, b);
+        Move move = Move.mv(findMove(b, budget == AI.NO_LIMIT ? _iterations
+                                        : Integer.MAX_VALUE, budget));
+        _controller.reportMove(move);
+        return move.toString();
+    }
+
+    /** Return the packed code of a move for the side to move on BOARD,
+     *  or NO_MOVE if there is none, after running ITERATIONS iterations
+     *  or until BUDGET milliseconds (unless it is AI.NO_LIMIT) run out,
+     *  whichever comes first.  The move is the child of the root visited
+     *  most often.  BOARD is not changed. */
+    int findMove(Board board, int iterations, long budget) {
+        if (_moves == null) {
+            _moves = new int[_capacity];
+            _counts = new int[_capacity];
+            _remap = new int[_capacity];
+            _first = new AtomicIntegerArray(_capacity);
+            _visits = new AtomicIntegerArray(_capacity);
+            _wins = new AtomicIntegerArray(_capacity);
+            _size.set(0);
+        }
+        if (_workers == null) {
+            _workers = new Worker[_threads];
+            for (int i = 0; i < _threads; i++) {
+                _workers[i] = new Worker(i);
+            }
+        }
+        reuseTree(board);
+        Board.Snapshot root = board.snapshot();
+        for (Worker worker : _workers) {
+            worker._board.restore(root);
+            worker._iterations = 0;
+        }
+        if (board.winner() != EMPTY) {
+            return NO_MOVE;
+        }
+        expandRoot(_workers[0]);
+        int first = _first.get(0), n = _counts[0];
+        if (n == 1) {
+            _iterationCount = 0;
+            return _moves[first];
+        }
+
+        _deadline = budget == AI.NO_LIMIT ? AI.NO_LIMIT
+            : System.currentTimeMillis() + budget;
+        _remaining.set(iterations);
+        if (_workers.length == 1) {
+            _workers[0].search();
+        } else {
+            if (_pool == null) {
+                _pool = new ForkJoinPool(_workers.length);
+            }
+            ArrayList<Callable<Void>> tasks = new ArrayList<>();
+            for (Worker worker : _workers) {
+                tasks.add(() -> {
+                    worker.search();
+                    return null;
+                });
+            }
+            _pool.invokeAll(tasks);
+        }
+        _iterationCount = 0;
+        for (Worker worker : _workers) {
+            _iterationCount += worker._iterations;
+        }
+        _totalIterations += _iterationCount;
+
+        int best = first;
+        for (int c = first + 1; c < first + n; c++) {
+            if (_visits.get(c) > _visits.get(best)) {
+                best = c;
+            }
+        }
+        return _moves[best];
+    }
+
+    /** Make node 0 the root for BOARD.  If the tree is for a position
+     *  BOARD was reached from and holds the node for BOARD, keeps the
+     *  subtree of that node, moved to the front of the arrays, and
+     *  otherwise empties the tree. */
+    private void reuseTree(Board board) {
+        int node = -1;
+        if (_size.get() > 0 && board.numMoves() >= _rootPly) {
+            Board earlier = new Board(board);
+            for (int k = board.numMoves(); k > _rootPly; k--) {
+                earlier.undo();
+            }
+            if (earlier.hash() == _rootHash) {
+                node = 0;
+                for (int k = _rootPly; k < board.numMoves() && node >= 0;
+                     k++) {
+                    node = child(node, board.move(k));
+                }
+            }
+        }
+        if (node < 0) {
+            clearTree();
+        } else if (node > 0) {
+            compact(node);
+        }
+        _rootPly = board.numMoves();
+        _rootHash = board.hash();
+    }
+
+    /** Empty the tree, leaving only an unvisited root. */
+    private void clearTree() {
+        _size.set(1);
+        _full = false;
+        newNode(0, NO_MOVE);
+    }
+
+    /** Return the child of NODE reached by MOVE, or -1 if there is
+     *  none. */
+    private int child(int node, int move) {
+        int first = _first.get(node);
+        if (first >= 0) {
+            for (int c = first; c < first + _counts[node]; c++) {
+                if (_moves[c] == move) {
+                    return c;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /** Move the subtree of ROOT to the front of the arrays, with ROOT as
+     *  node 0, and free the rest of the tree.  Since children always
+     *  follow their parents, renumbering the nodes kept in order moves
+     *  each to a position no later than its old one, so the copy can be
+     *  done in place, and keeps each node's children together.  ROOT's
+     *  children, allocated before any of their descendants, become nodes
+     *  1 and up. */
+    private void compact(int root) {
+        int size = Math.min(_size.get(), _capacity);
+        int[] remap = _remap;
+        Arrays.fill(remap, root, size, -1);
+        remap[root] = 0;
+        for (int i = root; i < size; i++) {
+            int first = _first.get(i);
+            if (remap[i] >= 0 && first >= 0) {
+                Arrays.fill(remap, first, first + _counts[i], 0);
+            }
+        }
+        int next = 0;
+        for (int i = root; i < size; i++) {
+            if (remap[i] >= 0) {
+                remap[i] = next++;
+            }
+        }
+        for (int i = root; i < size; i++) {
+            int j = remap[i];
+            if (j >= 0) {
+                int first = _first.get(i);
+                moveNode(i, j);
+                _first.set(j, first >= 0 ? remap[first] : UNEXPANDED);
+            }
+        }
+        _size.set(next);
+        _full = false;
+    }
+
+    /** Initialize NODE as an unvisited leaf reached by MOVE. */
+    private void newNode(int node, int move) {
+        _moves[node] = move;
+        _counts[node] = 0;
+        _visits.set(node, 0);
+        _wins.set(node, 0);
+        _first.set(node, UNEXPANDED);
+    }
+
+    /** Give the root, whose position is on WORKER's board, all its legal
+     *  moves as children, unless it has them already.  Any children it
+     *  has (the best MAX_CHILDREN by heuristic value, if it was expanded
+     *  when it was not the root) keep their statistics and subtrees, and
+     *  the rest follow them in decreasing order of their static values
+     *  (see Worker.rank).  Since reuseTree leaves the root's children in
+     *  nodes 1 and up, this moves the nodes after them up to make room,
+     *  so that children still follow their parents.  Empties the tree
+     *  first if there is no room.  Assumes the game is not over. */
+    private void expandRoot(Worker worker) {
+        int[] moves = worker._buffer;
+        int n = worker._board.generateMoves(worker._board.turn(), moves);
+        int count = _first.get(0) >= 0 ? _counts[0] : 0;
+        if (count == n) {
+            return;
+        }
+        int size = treeSize(), extra = n - count;
+        if (size + extra > _capacity) {
+            clearTree();
+            size = 1;
+            count = 0;
+            extra = n;
+        }
+        for (int i = size - 1; i > 0; i--) {
+            int first = _first.get(i);
+            if (first > count) {
+                _first.set(i, first + extra);
+            }
+            if (i > count) {
+                moveNode(i, i + extra);
+            }
+        }
+        worker.rank(n);
+        int next = 1 + count;
+        for (int i = 0; i < n; i++) {
+            if (count == 0 || child(0, moves[i]) < 0) {
+                newNode(next++, moves[i]);
+            }
+        }
+        _counts[0] = n;
+        _first.set(0, 1);
+        _size.set(size + extra);
+    }
+
+    /** Copy node FROM to node TO. */
+    private void moveNode(int from, int to) {
+        _moves[to] = _moves[from];
+        _counts[to] = _counts[from];
+        _visits.set(to, _visits.get(from));
+        _wins.set(to, _wins.get(from));
+        _first.set(to, _first.get(from));
+    }
+
+    /** Add the children of NODE, other than the root, whose position is
+     *  on WORKER's board, to the tree: the best MAX_CHILDREN legal moves,
+     *  in decreasing order of their heuristic value (see Worker.order).
+     *  Return true iff NODE has children when done.  Returns false if
+     *  another thread is adding them or the tree is full. */
+    private boolean expand(int node, Worker worker) {
+        Board board = worker._board;
+        if (_first.get(node) >= 0) {
+            return _counts[node] > 0;
+        }
+        if (board.winner() != EMPTY || _full
+            || !_first.compareAndSet(node, UNEXPANDED, EXPANDING)) {
+            return false;
+        }
+        int[] moves = worker._buffer;
+        int n = board.generateMoves(board.turn(), moves);
+        int limit = Math.min(n, MAX_CHILDREN);
+        int block = _size.getAndAdd(limit);
+        if (block + limit > _capacity) {
+            _full = true;
+            _first.set(node, UNEXPANDED);
+            return false;
+        }
+        worker.order(n);
+        for (int i = 0; i < limit; i++) {
+            newNode(block + i, moves[i]);
+        }
+        _counts[node] = limit;
+        _first.set(node, block);
+        return true;
+    }
+
+    /** Return the child of NODE, whose children start at FIRST, to visit
+     *  next: the first of the children under consideration that has not
+     *  been visited, if any, and otherwise the one whose mean reward for
+     *  the side making its move has the greatest upper confidence
+     *  bound.  The number of children under consideration grows with the
+     *  square root of the number of visits to NODE. */
+    private int select(int node, int first) {
+        int visits = _visits.get(node);
+        int width = Math.min(_counts[node],
+                             WIDEN_BASE + (int) Math.sqrt(visits));
+        double logVisits = Math.log(visits);
+        int best = first;
+        double bestValue = -1;
+        for (int c = first; c < first + width; c++) {
+            int n = _visits.get(c);
+            if (n == 0) {
+                return c;
+            }
+            double value = (double) _wins.get(c) / (REWARD * n)
+                + EXPLORATION * Math.sqrt(logVisits / n);
+            if (value > bestValue) {
+                best = c;
+                bestValue = value;
+            }
+        }
+        return best;
+    }
+
+    /** One search thread, with its own copy of the board and buffers. */
+    private class Worker {
+
+        /** A worker whose random playouts are seeded by ID. */
+        Worker(int id) {
+            _board = new Board();
+            _seed = SEED * (id + 1);
+        }
+
+        /** Run iterations from the root position on my board until the
+         *  iterations or the time for the search run out. */
+        void search() {
+            while (_remaining.getAndDecrement() > 0
+                   && System.currentTimeMillis() < _deadline) {
+                iterate();
+                _iterations += 1;
+            }
+        }
+
+        /** Descend the tree from the root to a leaf, expanding it if it
+         *  has been visited often enough and descending one more level,
+         *  score the position reached by a playout, and credit each node
+         *  on the way with the share of REWARD due to the side that made
+         *  its move.  Leaves my board as it was. */
+        private void iterate() {
+            Board board = _board;
+            int node = 0, length = 0;
+            _visits.incrementAndGet(node);
+            _path[length++] = node;
+            while (true) {
+                int first = _first.get(node);
+                if (first < 0) {
+                    if (_visits.get(node) < EXPAND_VISITS
+                        || !expand(node, this)) {
+                        break;
+                    }
+                    first = _first.get(node);
+                }
+                node = select(node, first);
+                board.makeMove(_moves[node]);
+                _visits.incrementAndGet(node);
+                _path[length++] = node;
+            }
+            int white = playout();
+            Piece mover = board.turn().opponent();
+            for (int i = length - 1; i > 0; i--) {
+                _wins.addAndGet(_path[i],
+                                mover == WHITE ? white : REWARD - white);
+                mover = mover.opponent();
+                board.undo();
+            }
+        }
+
+        /** Make up to PLAYOUT_PLIES random moves on my board and return
+         *  white's share of REWARD for the position reached: all of it or
+         *  none if the game is over, and otherwise a share that grows with
+         *  the evaluator's score along a logistic curve of scale
+         *  SCORE_SCALE.  Leaves my board as it was. */
+        private int playout() {
+            Board board = _board;
+            int plies;
+            for (plies = 0; plies < PLAYOUT_PLIES
+                     && board.winner() == EMPTY; plies++) {
+                int n = board.generateMoves(board.turn(), _buffer);
+                board.makeMove(_buffer[random(n)]);
+            }
+            int white;
+            if (board.winner() == EMPTY) {
+                double score = _evaluator.score(board);
+                white = (int) Math.round(REWARD
+                                         / (1 + Math.exp(-score
+                                                         / SCORE_SCALE)));
+            } else {
+                white = board.winner() == WHITE ? REWARD : 0;
+            }
+            for (; plies > 0; plies--) {
+                board.undo();
+            }
+            return white;
+        }
+
+        /** Sort the first N entries of _buffer, the legal moves on my
+         *  board, into decreasing order of a heuristic value: the number
+         *  of empty squares around the queen's destination, plus
+         *  SPEAR_WEIGHT for each opposing queen next to the spear. */
+        void order(int n) {
+            Board board = _board;
+            Piece opponent = board.turn().opponent();
+            int queens = 0;
+            for (int k = 0; k < 2; k++) {
+                for (long q = board.queenWord(opponent, k); q != 0;
+                     q &= q - 1) {
+                    _queens[queens++] = 64 * k + Long.numberOfTrailingZeros(q);
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                int move = _buffer[i];
+                int spear = Move.spear(move);
+                int value = board.free(Move.to(move));
+                for (int j = 0; j < queens; j++) {
+                    if (Math.abs(spear / Board.SIZE - _queens[j] / Board.SIZE)
+                        <= 1
+                        && Math.abs(spear % Board.SIZE
+                                    - _queens[j] % Board.SIZE) <= 1) {
+                        value += SPEAR_WEIGHT;
+                    }
+                }
+                _keys[i] = (long) -value << MOVE_BITS | move;
+            }
+            Arrays.sort(_keys, 0, n);
+            for (int i = 0; i < n; i++) {
+                _buffer[i] = (int) (_keys[i] & MOVE_MASK);
+            }
+        }
+
+        /** Sort the first N entries of _buffer, the legal moves on my
+         *  board, into decreasing order of the static value (see
+         *  Territory) of the position after each, for the side making
+         *  it. */
+        void rank(int n) {
+            Board board = _board;
+            int sense = board.turn() == WHITE ? 1 : -1;
+            for (int i = 0; i < n; i++) {
+                int move = _buffer[i];
+                board.makeMove(move);
+                int value = board.winner() == EMPTY
+                    ? sense * _evaluator.score(board) : Integer.MAX_VALUE;
+                board.undo();
+                _keys[i] = (long) -value << MOVE_BITS | move;
+            }
+            Arrays.sort(_keys, 0, n);
+            for (int i = 0; i < n; i++) {
+                _buffer[i] = (int) (_keys[i] & MOVE_MASK);
+            }
+        }
+
+        /** Return a pseudo-random integer in the range 0 inclusive to N,
+         *  exclusive (xorshift). */
+        private int random(int n) {
+            long x = _seed;
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+            _seed = x;
+            return (int) (((x >>> 32) * n) >>> 32);
+        }
+
+        /** My copy of the position being searched. */
+        private final Board _board;
+        /** Buffer for generated moves. */
+        private final int[] _buffer = new int[Board.MAX_MOVES];
+        /** Buffer for sort keys of moves. */
+        private final long[] _keys = new long[Board.MAX_MOVES];
+        /** Nodes on the path of the current iteration. */
+        private final int[] _path = new int[Board.SIZE * Board.SIZE + 1];
+        /** Indices of the opposing queens' squares (see order). */
+        private final int[] _queens = new int[Board.SIZE];
+        /** Evaluator for positions at the ends of playouts. */
+        private final Territory _evaluator = new Territory();
+        /** State of my random number generator. */
+        private long _seed;
+        /** Number of iterations I ran in the current search. */
+        private int _iterations;
+    }
+
+    /** Value of a move code denoting no move. */
+    static final int NO_MOVE = -1;
+
+    /** Value of _first for a node whose children have not been added. */
+    private static final int UNEXPANDED = -1;
+    /** Value of _first for a node whose children some thread is
+     *  adding. */
+    private static final int EXPANDING = -2;
+    /** Greatest number of children kept for positions other than the
+     *  root. */
+    private static final int MAX_CHILDREN = 64;
+    /** Number of visits to a leaf after which its children are added. */
+    private static final int EXPAND_VISITS = 2;
+    /** Number of children considered at a node not yet visited. */
+    private static final int WIDEN_BASE = 2;
+    /** Weight of the exploration term of the confidence bound. */
+    private static final double EXPLORATION = 0.5;
+    /** Value of a won playout (see Worker.playout). */
+    private static final int REWARD = 64;
+    /** Evaluator score at which a playout is worth about three quarters
+     *  of REWARD to the side it favors. */
+    private static final double SCORE_SCALE = 100;
+    /** Number of random moves in a playout. */
+    private static final int PLAYOUT_PLIES = 4;
+    /** Heuristic value of a spear next to an opposing queen (see
+     *  Worker.order). */
+    private static final int SPEAR_WEIGHT = 2;
+    /** Number of bits in a packed move code. */
+    private static final int MOVE_BITS = 21;
+    /** Mask selecting a packed move from a sort key. */
+    private static final long MOVE_MASK = (1L << MOVE_BITS) - 1;
+    /** Seed of the first worker's random number generator. */
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+
+    /** Maximum number of nodes in the tree. */
+    private int _capacity;
+    /** Number of search threads. */
+    private int _threads;
+    /** Number of iterations per move without time limits. */
+    private int _iterations;
+
+    /** Packed move leading to each node. */
+    private int[] _moves;
+    /** Number of children of each node. */
+    private int[] _counts;
+    /** New numbers of nodes kept by compact. */
+    private int[] _remap;
+    /** Index of the first child of each node, or UNEXPANDED or
+     *  EXPANDING.  The children of a node are consecutive. */
+    private AtomicIntegerArray _first;
+    /** Number of visits to each node, including visits in progress. */
+    private AtomicIntegerArray _visits;
+    /** Total reward of the visits to each node (see Worker.playout) for
+     *  the side that made the move leading to it. */
+    private AtomicIntegerArray _wins;
+    /** Number of nodes allocated, which may exceed _capacity after an
+     *  allocation fails. */
+    private final AtomicInteger _size = new AtomicInteger();
+    /** True iff an allocation has failed since the tree was last
+     *  emptied or compacted. */
+    private volatile boolean _full;
+    /** Number of moves made to reach the position at the root. */
+    private int _rootPly;
+    /** Hash of the position at the root. */
+    private long _rootHash;
+
+    /** Number of iterations the current search may still start. */
+    private final AtomicInteger _remaining = new AtomicInteger();
+    /** Time (as from System.currentTimeMillis) at which the current search
+     *  must stop, or AI.NO_LIMIT. */
+    private volatile long _deadline;
+    /** Number of iterations run by the last search. */
+    private int _iterationCount;
+    /** Number of iterations run by all my searches. */
+    private long _totalIterations;
+
+    /** The search workers, one per thread, created when first needed. */
+    private Worker[] _workers;
+    /** Thread pool for searches with several workers, created when first
+     *  needed. */
+    private ForkJoinPool _pool;
+}
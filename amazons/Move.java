@@ -10,6 +10,11 @@ import static amazons.Square.SQ;
  *  and unique: there is only one move object for each possible move
  *  (generated by the factory method  mv, the constructor being private).
  *  As for Squares, you can freely use == to compare Moves.
+ *
+ *  Inside the engine, moves are instead plain ints packed by code: the
+ *  indices of the from, to, and spear squares in 7 bits each.  Move
+ *  objects are created from those codes only where moves are read from or
+ *  reported to the user.
  *  @author P. N. Hilfinger
  */
 final class Move {
@@ -37,19 +42,72 @@ final class Move {
         return _spear;
     }
 
+    /** Return my packed encoding (see code(int, int, int)). */
+    int code() {
+        return _code;
+    }
+
+    /** Return the packed encoding of the move whose from, to, and spear
+     *  squares have indices FROM, TO, and SPEAR.  The encoding occupies
+     *  the low 21 bits of the result, 7 bits per square, from first. */
+    static int code(int from, int to, int spear) {
+        return from | (to << SQ_BITS) | (spear << (2 * SQ_BITS));
+    }
+
+    /** Return the index of the from square of the packed move CODE. */
+    static int from(int code) {
+        return code & SQ_MASK;
+    }
+
+    /** Return the index of the to square of the packed move CODE. */
+    static int to(int code) {
+        return (code >>> SQ_BITS) & SQ_MASK;
+    }
+
+    /** Return the index of the spear square of the packed move CODE. */
+    static int spear(int code) {
+        return code >>> (2 * SQ_BITS);
+    }
+
+    /** Return the printed form of the packed move CODE. */
+    static String toString(int code) {
+        return String.format("%s-%s(%s)", sq(from(code)), sq(to(code)),
+                             sq(spear(code)));
+    }
+
+    /** Return the unique Move whose packed encoding is CODE.  May be
+     *  called from any thread. */
+    static Move mv(int code) {
+        Move[] moves = MOVES[code & ((1 << (2 * SQ_BITS)) - 1)];
+        Move move = moves == null ? null : moves[spear(code)];
+        return move != null ? move : create(code);
+    }
+
+    /** Return the unique Move whose packed encoding is CODE, creating it
+     *  and its row of MOVES if needed.  Since a Move's code and squares are
+     *  final fields, other threads may read a Move stored here without
+     *  locking. */
+    private static synchronized Move create(int code) {
+        int fromTo = code & ((1 << (2 * SQ_BITS)) - 1);
+        Move[] moves = MOVES[fromTo];
+        if (moves == null) {
+            moves = MOVES[fromTo] = new Move[1 << SQ_BITS];
+        }
+        if (moves[spear(code)] == null) {
+            moves[spear(code)] = new Move(code);
+        }
+        return moves[spear(code)];
+    }
+
     /** Return the unique Move FROM-TO(SPEAR). */
     static Move mv(Square from, Square to, Square spear) {
-        if (MOVES[from.index()][to.index()][spear.index()] == null) {
-            MOVES[from.index()][to.index()][spear.index()] =
-                new Move(from, to, spear);
-        }
-        return MOVES[from.index()][to.index()][spear.index()];
+        return mv(code(from.index(), to.index(), spear.index()));
     }
 
     /** Return the Move denoted by STR, if STR denotes a move with
      *  valid syntax in which the piece move and spear throw are proper
      *  queen moves, and null otherwise. */
-    static Move mv(String str) {
+    static synchronized Move mv(String str) {
         _moveMatcher.reset(str);
         if (_moveMatcher.matches()) {
             int k = _moveMatcher.group(1) != null ? 1 : 4;
@@ -65,28 +123,40 @@ final class Move {
 
     /** Return true iff STR has the right format for a Move, ignoring whether
      *  its piece-move and spear-throw are valid queen moves. */
-    static boolean isGrammaticalMove(String str) {
+    static synchronized boolean isGrammaticalMove(String str) {
         _moveMatcher.reset(str);
         return _moveMatcher.matches();
     }
 
     @Override
     public String toString() {
+        if (_str == null) {
+            _str = toString(_code);
+        }
         return _str;
     }
 
-    /** Construct the Move FROM-TO(SPEAR). */
-    private Move(Square from, Square to, Square spear) {
-        _from = from; _to = to; _spear = spear;
-        _str = String.format("%s-%s(%s)", from, to, spear);
+    /** Construct the Move whose packed encoding is CODE. */
+    private Move(int code) {
+        _code = code;
+        _from = sq(from(code)); _to = sq(to(code)); _spear = sq(spear(code));
     }
 
-    /** The cache of all Moves created. */
-    private static final Move[][][] MOVES = new Move[100][100][100];
+    /** Number of bits used for each square in a packed move. */
+    private static final int SQ_BITS = 7;
+    /** Mask for one square of a packed move. */
+    private static final int SQ_MASK = (1 << SQ_BITS) - 1;
+
+    /** The cache of all Moves created, indexed by the from and to bits of
+     *  their codes and then by spear square.  Rows are created only for
+     *  from-to pairs that are actually used. */
+    private static final Move[][] MOVES = new Move[1 << (2 * SQ_BITS)][];
 
+    /** My packed encoding. */
+    private final int _code;
     /** The components of a Move. */
     private final Square _from, _to, _spear;
-    /** The printed form of a Move. */
+    /** The printed form of a Move, or null if not yet needed. */
     private String _str;
     /**  A utility Matcher for moves, using MOVE_PATTERN. */
     private static Matcher _moveMatcher = MOVE_PATTERN.matcher("");
@@ -0,0 +1,278 @@
+package amazons;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Scanner;
+import java.util.function.IntUnaryOperator;
+
+import static amazons.Utils.*;
+
+/** A read-only opening book: a file of (position key, move, weight, games,
+ *  wins) entries, sorted by key, that is memory-mapped and searched in
+ *  place, so that opening it reads nothing but the header.  Position keys
+ *  are Board.hash values, which are the same on every run.  Weights are
+ *  wins + 1, so that moves that have won are preferred, but moves that
+ *  have only been played are still possible.
+ *  File layout (big-endian): int MAGIC, int VERSION, long entry count, then
+ *  the entries, each long key, int packed move (see Move.code), int
+ *  weight, int games, int wins.
+ *  Usage: java amazons.OpeningBook [--plies=N] OUTPUT LOG...
+ *  builds a book in OUTPUT from the first N moves (default 20) of the
+ *  games recorded in the LOG files (as written by --log).
+ *  @author Eric Huang
+ */
+class OpeningBook {
+
+    /** Identifies an opening book file. */
+    static final int MAGIC = 0x414d5a42;
+    /** Version of the file layout. */
+    static final int VERSION = 1;
+    /** Size of the header in bytes. */
+    static final int HEADER_BYTES = 16;
+    /** Size of an entry in bytes. */
+    static final int ENTRY_BYTES = 24;
+    /** Default number of moves of each game recorded in a book. */
+    static final int DEFAULT_PLIES = 20;
+
+    /** The book in the file named NAME. */
+    OpeningBook(String name) {
+        try (FileChannel channel =
+             FileChannel.open(Paths.get(name), StandardOpenOption.READ)) {
+            _entries = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                   channel.size());
+        } catch (IOException excp) {
+            throw error("could not read opening book %s", name);
+        }
+        if (_entries.capacity() < HEADER_BYTES
+            || _entries.getInt(0) != MAGIC || _entries.getInt(4) != VERSION) {
+            throw error("%s is not an opening book", name);
+        }
+        long count = _entries.getLong(8);
+        if (count < 0
+            || HEADER_BYTES + count * ENTRY_BYTES != _entries.capacity()) {
+            throw error("opening book %s is damaged", name);
+        }
+        _size = (int) count;
+    }
+
+    /** Return the number of entries in this book. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the packed code of a book move for the side to move on
+     *  BOARD, or -1 if the book has none.  Chooses randomly among the
+     *  book's moves with probability proportional to their weights,
+     *  using RANDOM (as Controller.randInt), or takes the move of
+     *  greatest weight (and then most games) if RANDOM is null.  Only
+     *  legal moves are returned. */
+    int probe(Board board, IntUnaryOperator random) {
+        long key = board.hash();
+        int first = lowerBound(key);
+        int total = 0, last;
+        for (last = first; last < _size && key(last) == key; last++) {
+            if (board.isLegal(Move.mv(move(last)))) {
+                total += weight(last);
+            }
+        }
+        if (total == 0) {
+            return -1;
+        }
+        int pick = random == null ? -1 : random.applyAsInt(total);
+        int best = -1;
+        for (int i = first; i < last; i++) {
+            if (!board.isLegal(Move.mv(move(i)))) {
+                continue;
+            }
+            if (random == null) {
+                if (best == -1 || weight(i) > weight(best)) {
+                    best = i;
+                }
+            } else {
+                pick -= weight(i);
+                if (pick < 0) {
+                    return move(i);
+                }
+            }
+        }
+        return move(best);
+    }
+
+    /** Return the index of the first entry whose key is not less than
+     *  KEY (as unsigned numbers), or size() if there is none. */
+    private int lowerBound(long key) {
+        int lo = 0, hi = _size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Long.compareUnsigned(key(mid), key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Return the position key of entry I. */
+    long key(int i) {
+        return _entries.getLong(HEADER_BYTES + i * ENTRY_BYTES);
+    }
+
+    /** Return the packed move of entry I. */
+    int move(int i) {
+        return _entries.getInt(HEADER_BYTES + i * ENTRY_BYTES + 8);
+    }
+
+    /** Return the weight of entry I. */
+    int weight(int i) {
+        return _entries.getInt(HEADER_BYTES + i * ENTRY_BYTES + 12);
+    }
+
+    /** Return the number of recorded games in which entry I's move was
+     *  played. */
+    int games(int i) {
+        return _entries.getInt(HEADER_BYTES + i * ENTRY_BYTES + 16);
+    }
+
+    /** Return the number of those games won by the side that played
+     *  entry I's move. */
+    int wins(int i) {
+        return _entries.getInt(HEADER_BYTES + i * ENTRY_BYTES + 20);
+    }
+
+    /** Write a book to the file named OUTPUT from the first PLIES moves of
+     *  each game in the log files named in LOGS, with the entries for
+     *  each position in decreasing order of weight and then of games.
+     *  Return the number of entries written. */
+    static int build(String output, List<String> logs, int plies) {
+        HashMap<Long, HashMap<Integer, int[]>> stats = new HashMap<>();
+        for (String log : logs) {
+            readLog(log, plies, stats);
+        }
+        ArrayList<long[]> entries = new ArrayList<>();
+        for (long key : stats.keySet()) {
+            for (HashMap.Entry<Integer, int[]> move
+                     : stats.get(key).entrySet()) {
+                int[] counts = move.getValue();
+                entries.add(new long[] {
+                    key, move.getKey(), counts[1] + 1, counts[0], counts[1]
+                });
+            }
+        }
+        entries.sort((a, b) -> a[0] != b[0] ? Long.compareUnsigned(a[0], b[0])
+                     : a[2] != b[2] ? Long.compare(b[2], a[2])
+                     : Long.compare(b[3], a[3]));
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(output)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(entries.size());
+            for (long[] entry : entries) {
+                out.writeLong(entry[0]);
+                for (int k = 1; k < entry.length; k++) {
+                    out.writeInt((int) entry[k]);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not write opening book %s", output);
+        }
+        return entries.size();
+    }
+
+    /** Add to STATS the first PLIES moves of each game in the log file
+     *  named NAME.  STATS maps position keys to maps from packed moves to
+     *  {games, wins} counts.  Games are separated by "new" commands;
+     *  "undo" takes back two moves, as in Controller. */
+    private static void readLog(String name, int plies,
+                                HashMap<Long, HashMap<Integer, int[]>> stats) {
+        Board board = new Board();
+        try (Scanner input = new Scanner(new FileReader(name))) {
+            while (input.hasNextLine()) {
+                String line = input.nextLine().replaceFirst("#.*", "")
+                    .trim().toLowerCase();
+                if (line.equals("new") || line.equals("quit")) {
+                    record(board, plies, stats);
+                    board.init();
+                } else if (line.equals("undo")) {
+                    board.undo();
+                    board.undo();
+                } else {
+                    Move move = Move.mv(line);
+                    if (move != null && board.isLegal(move)) {
+                        board.makeMove(move);
+                    }
+                }
+            }
+        } catch (FileNotFoundException excp) {
+            throw error("could not open %s", name);
+        }
+        record(board, plies, stats);
+    }
+
+    /** Add the first PLIES moves of the game on BOARD, if it has any, to
+     *  STATS, as for readLog, counting a win for each move made by the
+     *  winner, if there is one. */
+    private static void record(Board board, int plies,
+                               HashMap<Long, HashMap<Integer, int[]>> stats) {
+        Piece winner = board.winner();
+        int n = board.numMoves();
+        if (n == 0) {
+            return;
+        }
+        int[] moves = new int[n];
+        for (int k = 0; k < n; k++) {
+            moves[k] = board.move(k);
+        }
+        Board replay = new Board();
+        for (int k = 0; k < Math.min(n, plies); k++) {
+            int[] counts = stats.computeIfAbsent(replay.hash(),
+                                                 key -> new HashMap<>())
+                .computeIfAbsent(moves[k], move -> new int[2]);
+            counts[0] += 1;
+            if (replay.turn() == winner) {
+                counts[1] += 1;
+            }
+            replay.makeMove(moves[k]);
+        }
+    }
+
+    /** Build a book as described above from ARGS. */
+    public static void main(String... args) {
+        int plies = DEFAULT_PLIES;
+        int k = 0;
+        try {
+            if (args.length > 0 && args[0].startsWith("--plies=")) {
+                plies = Integer.parseInt(args[0].substring(8));
+                k = 1;
+            }
+            if (args.length < k + 2) {
+                throw error("Usage: java amazons.OpeningBook [--plies=N]"
+                            + " OUTPUT LOG...");
+            }
+            int n = build(args[k],
+                          Arrays.asList(args).subList(k + 1, args.length),
+                          plies);
+            System.out.printf("%d entries written to %s%n", n, args[k]);
+        } catch (IllegalArgumentException excp) {
+            System.err.println(excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** The mapped contents of the book file. */
+    private final MappedByteBuffer _entries;
+    /** The number of entries. */
+    private final int _size;
+}
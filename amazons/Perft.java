@@ -0,0 +1,198 @@
+package amazons;
+
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static amazons.Utils.*;
+
+/** Perft: counts of the legal move sequences of given lengths, used to
+ *  check the move generator against known values and to time it.
+ *  Usage: java amazons.Perft [--divide] [--threads=N] DEPTH [FILE]
+ *  Prints the number of sequences of DEPTH moves from the initial
+ *  position or, if FILE is given, from the position reached by the moves
+ *  in FILE (such as a log written by --log; lines that are not moves are
+ *  ignored).  With --divide, also prints the count below each legal first
+ *  move.  With --threads, divides the first moves among N threads.
+ *  @author Eric Huang
+ */
+class Perft {
+
+    /** Numbers of legal move sequences of lengths 0, 1, 2 and 3 from the
+     *  initial position. */
+    static final long[] INITIAL = { 1, 2176, 4307152, 8350439170L };
+
+    /** Return the number of legal move sequences of length DEPTH from the
+     *  position on BOARD.  BOARD is unchanged afterward. */
+    static long perft(Board board, int depth) {
+        return perft(board, depth, new int[Math.max(depth, 1)][]);
+    }
+
+    /** Return the number of legal move sequences of length DEPTH from
+     *  the position on BOARD, with the first moves divided among THREADS
+     *  threads, each using its own copy of BOARD. */
+    static long perft(Board board, int depth, int threads) {
+        long total = 0;
+        for (long count : divide(board, depth, threads)) {
+            total += count;
+        }
+        return depth == 0 ? 1 : total;
+    }
+
+    /** Return an array of the numbers of legal move sequences of length
+     *  DEPTH from the position on BOARD that start with each legal move
+     *  for the side to move, in the order of Board.generateMoves, which
+     *  are stored in MOVES.  Uses THREADS threads.  BOARD is unchanged
+     *  afterward.  DEPTH must be positive. */
+    static long[] divide(Board board, int depth, int threads, int[] moves) {
+        int n = board.generateMoves(board.turn(), moves);
+        long[] counts = new long[n];
+        if (threads == 1) {
+            int[][] buffers = new int[depth][];
+            for (int i = 0; i < n; i++) {
+                board.makeMove(moves[i]);
+                counts[i] = perft(board, depth - 1, buffers);
+                board.undo();
+            }
+            return counts;
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            ArrayList<Callable<Long>> tasks = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                int move = moves[i];
+                tasks.add(() -> {
+                    Board copy = new Board(board);
+                    copy.makeMove(move);
+                    return perft(copy, depth - 1, new int[depth][]);
+                });
+            }
+            int i = 0;
+            for (Future<Long> count : pool.invokeAll(tasks)) {
+                counts[i] = count.get();
+                i++;
+            }
+        } catch (Exception excp) {
+            throw new IllegalStateException(excp);
+        } finally {
+            pool.shutdown();
+        }
+        return counts;
+    }
+
+    /** Return divide(BOARD, DEPTH, THREADS, MOVES) for a new MOVES. */
+    private static long[] divide(Board board, int depth, int threads) {
+        if (depth == 0) {
+            return new long[0];
+        }
+        return divide(board, depth, threads, new int[Board.MAX_MOVES]);
+    }
+
+    /** Return the number of legal move sequences of length DEPTH from
+     *  BOARD, using BUFFERS[D] (allocated when null) for the moves at
+     *  D levels from the end.  The moves of the last level are counted
+     *  (see Board.countLegalMoves), not generated. */
+    private static long perft(Board board, int depth, int[][] buffers) {
+        if (depth == 0) {
+            return 1;
+        } else if (depth == 1) {
+            return board.countLegalMoves(board.turn());
+        }
+        if (buffers[depth - 1] == null) {
+            buffers[depth - 1] = new int[Board.MAX_MOVES];
+        }
+        int[] moves = buffers[depth - 1];
+        int n = board.generateMoves(board.turn(), moves);
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            board.makeMove(moves[i]);
+            total += perft(board, depth - 1, buffers);
+            board.undo();
+        }
+        return total;
+    }
+
+    /** Make the moves in the file named NAME on BOARD. */
+    static void load(Board board, String name) {
+        try (Scanner input = new Scanner(new FileReader(name))) {
+            while (input.hasNextLine()) {
+                String line = input.nextLine().replaceFirst("#.*", "").trim();
+                Move move = Move.mv(line.toLowerCase());
+                if (move == null) {
+                    continue;
+                }
+                if (!board.isLegal(move)) {
+                    throw error("illegal move in %s: %s", name, line);
+                }
+                board.makeMove(move);
+            }
+        } catch (FileNotFoundException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Run perft as described above with ARGS. */
+    public static void main(String... args) {
+        boolean divide = false;
+        String threads = "1";
+        int k;
+        for (k = 0; k < args.length && args[k].startsWith("--"); k++) {
+            if (args[k].equals("--divide")) {
+                divide = true;
+            } else if (args[k].startsWith("--threads=")) {
+                threads = args[k].substring(10);
+            } else {
+                usage();
+            }
+        }
+        if (k >= args.length || args.length > k + 2) {
+            usage();
+        }
+        Board board = new Board();
+        try {
+            int threadCount = Integer.parseInt(threads);
+            if (threadCount < 1) {
+                throw error("need at least one thread");
+            }
+            if (args.length == k + 2) {
+                load(board, args[k + 1]);
+            }
+            report(board, Integer.parseInt(args[k]), threadCount, divide);
+        } catch (IllegalArgumentException excp) {
+            System.err.println(excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Print the perft count for DEPTH from BOARD, computed with THREADS
+     *  threads, with the time taken and, if DIVIDE, the counts below each
+     *  first move. */
+    static void report(Board board, int depth, int threads, boolean divide) {
+        long start = System.nanoTime();
+        int[] moves = new int[Board.MAX_MOVES];
+        long[] counts =
+            depth == 0 ? new long[0] : divide(board, depth, threads, moves);
+        long total = depth == 0 ? 1 : 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (divide) {
+                System.out.printf("%s: %d%n", Move.toString(moves[i]),
+                                  counts[i]);
+            }
+            total += counts[i];
+        }
+        double seconds = (System.nanoTime() - start) * 1e-9;
+        System.out.printf("perft %d: %d (%.3f s, %.0f/s)%n", depth, total,
+                          seconds, total / Math.max(seconds, 1e-9));
+    }
+
+    /** Print a usage message and exit. */
+    private static void usage() {
+        System.err.println("Usage: java amazons.Perft [--divide]"
+                           + " [--threads=N] DEPTH [FILE]");
+        System.exit(1);
+    }
+}
@@ -36,6 +36,19 @@ abstract class Player {
      *  is not null. */
     abstract String myMove();
 
+    /** Stop any work I am doing in the background (such as thinking on
+     *  my opponent's time), returning when it has stopped.  I may start
+     *  again on my next move.  Does nothing by default. */
+    void stop() {
+    }
+
+    /** Return the number of positions I have searched for all my moves so
+     *  far, or 0 if I do not search (or do not count).  Returns 0 by
+     *  default. */
+    long totalNodeCount() {
+        return 0;
+    }
+
     /** My Controller. */
     protected Controller _controller;
     /** The Piece I play (WHITE or BLACK). */
@@ -0,0 +1,66 @@
+package amazons;
+
+import java.util.Random;
+
+/** Measures how the AI's search speed scales with its number of threads.
+ *  Usage: java amazons.SearchScaling [MAXTHREADS [DEPTH [PLIES]]]
+ *  Searches one position, reached by PLIES (default 30) random moves from
+ *  the initial position, to DEPTH (default 3) levels with 1, 2, 4, ...
+ *  threads, up to MAXTHREADS (default the number of processors), and
+ *  prints the nodes visited, time, nodes per second, speed relative to
+ *  one thread, and the percentage of cutoffs caused by the first move
+ *  tried (a measure of move ordering) for each.  One untimed search
+ *  first warms up the JIT.
+ *  @author Eric Huang
+ */
+class SearchScaling {
+
+    /** Seed for the random moves that reach the measured position. */
+    private static final long SEED = 61;
+
+    /** Run the measurements described above with ARGS. */
+    public static void main(String... args) {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+            : Runtime.getRuntime().availableProcessors();
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int plies = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        Board board = randomPosition(new Random(SEED), plies);
+
+        new AI().findMove(board, depth, AI.NO_LIMIT);
+        System.out.printf("%7s %12s %9s %12s %7s %9s%n", "threads",
+                          "nodes", "ms", "nodes/s", "speedup", "1st-cut%");
+        double base = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            AI ai = new AI();
+            ai.setThreads(threads);
+            long start = System.nanoTime();
+            ai.findMove(board, depth, AI.NO_LIMIT);
+            double seconds = (System.nanoTime() - start) * 1e-9;
+            double rate = ai.nodeCount() / seconds;
+            if (threads == 1) {
+                base = rate;
+            }
+            System.out.printf("%7d %12d %9.0f %12.0f %7.2f %9.1f%n",
+                              threads, ai.nodeCount(), seconds * 1000,
+                              rate, rate / base,
+                              100.0 * ai.firstMoveCutoffCount()
+                              / Math.max(1, ai.cutoffCount()));
+            if (threads < maxThreads && threads * 2 > maxThreads) {
+                threads = maxThreads / 2;
+            }
+        }
+    }
+
+    /** Return a board reached by making PLIES random legal moves, chosen
+     *  with RANDOM, from the initial position (or fewer, if the game ends
+     *  first). */
+    static Board randomPosition(Random random, int plies) {
+        Board board = new Board();
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int k = 0; k < plies && board.winner() == Piece.EMPTY; k++) {
+            int n = board.generateMoves(board.turn(), moves);
+            board.makeMove(moves[random.nextInt(n)]);
+        }
+        return board;
+    }
+}
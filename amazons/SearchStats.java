@@ -0,0 +1,84 @@
+package amazons;
+
+/** Statistics of one AI search: how many positions it visited and
+ *  evaluated, how well its move ordering worked, how deep it got, and
+ *  (when timing is switched on) where its time went.  Each search thread
+ *  keeps its own, and the AI adds them up (see AI.stats).  The counters
+ *  other than nodes are compiled out when ENABLED is false; the phase
+ *  timings cost two calls to System.nanoTime per phase and are taken
+ *  only when asked for (see AI.setStatistics).  The toString form is a
+ *  single line of NAME=VALUE fields, meant to be easy to scrape from
+ *  logs.
+ *  @author Eric Huang
+ */
+final class SearchStats {
+
+    /** True iff the counters other than nodes are compiled in. */
+    static final boolean ENABLED = true;
+
+    /** Number of positions visited. */
+    long nodes;
+    /** Number of positions given static values. */
+    long leaves;
+    /** Number of positions at which a move caused a beta cutoff. */
+    long cutoffs;
+    /** Number of those cutoffs caused by the first move tried. */
+    long firstMoveCutoffs;
+    /** Sum over the cutoffs of the index of the move that caused each, in
+     *  the order tried (0 for the first). */
+    long cutoffIndices;
+    /** Deepest search that finished, in moves. */
+    int depth;
+    /** Nanoseconds spent generating and ordering moves. */
+    long generateNanos;
+    /** Nanoseconds spent making and undoing moves. */
+    long makeNanos;
+    /** Nanoseconds spent in static evaluation. */
+    long evalNanos;
+    /** Nanoseconds the whole search took. */
+    long elapsedNanos;
+    /** Effective branching factor: the ratio of the number of positions
+     *  visited by the last iteration to the number visited by the one
+     *  before it (or, with only one iteration, the number it visited). */
+    double branching;
+
+    /** Reset all statistics to zero. */
+    void clear() {
+        nodes = leaves = cutoffs = firstMoveCutoffs = cutoffIndices = 0;
+        depth = 0;
+        generateNanos = makeNanos = evalNanos = elapsedNanos = 0;
+        branching = 0;
+    }
+
+    /** Add the counts and timings of OTHER, a search thread's statistics,
+     *  to mine. */
+    void add(SearchStats other) {
+        nodes += other.nodes;
+        leaves += other.leaves;
+        cutoffs += other.cutoffs;
+        firstMoveCutoffs += other.firstMoveCutoffs;
+        cutoffIndices += other.cutoffIndices;
+        generateNanos += other.generateNanos;
+        makeNanos += other.makeNanos;
+        evalNanos += other.evalNanos;
+    }
+
+    /** Return the number of positions visited per second. */
+    double nodesPerSecond() {
+        return nodes * 1e9 / Math.max(1, elapsedNanos);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("nodes=%d leaves=%d nps=%.0f depth=%d"
+                             + " ebf=%.2f cutoffs=%d first=%.1f%%"
+                             + " index=%.2f gen=%.1fms make=%.1fms"
+                             + " eval=%.1fms time=%.1fms",
+                             nodes, leaves, nodesPerSecond(), depth,
+                             branching, cutoffs,
+                             100.0 * firstMoveCutoffs / Math.max(1, cutoffs),
+                             (double) cutoffIndices / Math.max(1, cutoffs),
+                             generateNanos * 1e-6, makeNanos * 1e-6,
+                             evalNanos * 1e-6, elapsedNanos * 1e-6);
+    }
+}
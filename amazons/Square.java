@@ -47,39 +47,17 @@ final class Square {
         return _index;
     }
 
-    /** Places piece P into this square. */
-    public void setpiece(Piece p) {
-        this._piece = p;
-    }
-
-    /** Returns the piece on this square. */
-    public Piece getpiece() {
-        return this._piece;
-    }
-
     /** Return true iff THIS - TO is a valid queen move. */
     boolean isQueenMove(Square to) {
-        int row1 = to.row();
-        int row2 = this.row();
-        int col1 = to.col();
-        int col2 = this.col();
-        if (to == this) {
-            return false;
-        }
-        if (row1 == row2 || col1 == col2
-                || java.lang.Math.abs(row2 - row1)
-                == java.lang.Math.abs(col2 - col1)) {
-            return true;
-        }
-        return false;
+        return DIRECTIONS[_index * NUM_SQUARES + to._index] >= 0;
     }
 
     /** Definitions of direction for queenMove.  DIR[k] = (dcol, drow)
      *  means that to going one step from (col, row) in direction k,
      *  brings us to (col + dcol, row + drow). */
     private static final int[][] DIR = {
-        { 0, 1 }, { 1, 1 }, { 1, 0 }, { 1, -1 },
-        { 0, -1 }, { -1, -1 }, { -1, 0 }, { -1, 1 }
+        { 1, 0 }, { 1, 1 }, { 0, 1 }, { -1, 1 },
+        { -1, 0 }, { -1, -1 }, { 0, -1 }, { 1, -1 }
     };
 
 
@@ -89,19 +67,14 @@ final class Square {
      *  northwest. If DIR has another value, return null. Thus, unless the
      *  result is null the resulting square is a queen move away from me. */
     Square queenMove(int dir, int steps) {
-        int col = this.col();
-        int row = this.row();
-        if (dir == 7 || dir < 2) {
-            col += steps;
-        } else if (dir > 2 && dir < 6) {
-            col -= steps;
+        if (dir < 0 || dir >= DIR.length) {
+            return null;
         }
-        if (dir > 0 && dir < 4) {
-            row += steps;
-        } else if (dir > 4 && dir < 8) {
-            row -= steps;
+        int[] ray = RAYS[_index][dir];
+        if (steps <= 0 || steps > ray.length) {
+            return null;
         }
-        return Square.sq(col, row);
+        return SQUARES[ray[steps - 1]];
     }
 
 
@@ -109,31 +82,7 @@ final class Square {
      *  for queenMove) of the queen move THIS-TO. */
     int direction(Square to) {
         assert isQueenMove(to);
-        int rowdif = to.row() - this.row();
-        int coldif = to.col() - this.col();
-
-        if (rowdif == 0) {
-            if (coldif > 0) {
-                return 0;
-            }
-            return 4;
-        } else if (coldif == 0) {
-            if (rowdif > 0) {
-                return 2;
-            }
-            return 6;
-        } else if ((rowdif * coldif) > 0) {
-            if (rowdif > 0) {
-                return 1;
-            }
-            return 5;
-        } else {
-            if (rowdif > 0) {
-                return 3;
-            }
-            return 7;
-        }
-
+        return DIRECTIONS[_index * NUM_SQUARES + to._index];
     }
 
     @Override
@@ -189,7 +138,6 @@ final class Square {
         char lrow = (char) (_row + CONVERT);
         int lcol = _col + 1;
         _str = Character.toString(lrow) + lcol;
-        _piece = Piece.EMPTY;
     }
 
     /** The cache of all created squares, by index. */
@@ -207,24 +155,80 @@ final class Square {
 
     /** Return next col STEPS in DIR. **/
     public int nextCol(int dir, int steps) {
-        int col = this.col();
-        if (dir == 7 || dir < 2) {
-            col += steps;
-        } else if (dir > 2 && dir < 6) {
-            col -= steps;
-        }
-        return col;
+        return _col + DIR[dir][0] * steps;
     }
 
     /** Return next row STEPS in DIR. **/
     public int nextRow(int dir, int steps) {
-        int row = this.row();
-        if (dir > 0 && dir < 4) {
-            row += steps;
-        } else if (dir > 4 && dir < 8) {
-            row -= steps;
+        return _row + DIR[dir][1] * steps;
+    }
+
+    /** Return the indices of the squares reachable from the square with
+     *  index FROM by moving in direction DIR, nearest first, as far as the
+     *  edge of the board.  The result is shared and must not be
+     *  modified. */
+    static int[] ray(int from, int dir) {
+        return RAYS[from][dir];
+    }
+
+    /** Return word WORD (0 or 1) of the set of squares strictly between
+     *  the squares with indices FROM and TO, which must be a queen move
+     *  apart for the result to be meaningful (otherwise it is 0). */
+    static long between(int from, int to, int word) {
+        return BETWEEN[2 * (from * NUM_SQUARES + to) + word];
+    }
+
+    /** Return the direction of the queen move from index FROM to index TO,
+     *  or -1 if it is not a queen move. */
+    static int direction(int from, int to) {
+        return DIRECTIONS[from * NUM_SQUARES + to];
+    }
+
+    /** Number of squares on the board. */
+    private static final int NUM_SQUARES = Board.SIZE * Board.SIZE;
+
+    /** RAYS[K][D] is the ray of square indices from index K in
+     *  direction D. */
+    private static final int[][][] RAYS = new int[NUM_SQUARES][8][];
+
+    /** BETWEEN[2 * (F * NUM_SQUARES + T) + W] is word W of the set of
+     *  squares strictly between indices F and T. */
+    private static final long[] BETWEEN = new long[2 * NUM_SQUARES
+                                                   * NUM_SQUARES];
+
+    /** DIRECTIONS[F * NUM_SQUARES + T] is the direction from index F to
+     *  index T, or -1 if they are not a queen move apart. */
+    private static final byte[] DIRECTIONS =
+        new byte[NUM_SQUARES * NUM_SQUARES];
+
+    static {
+        java.util.Arrays.fill(DIRECTIONS, (byte) -1);
+        for (int from = 0; from < NUM_SQUARES; from++) {
+            int col = from / Board.SIZE, row = from % Board.SIZE;
+            for (int dir = 0; dir < DIR.length; dir++) {
+                int len = 0;
+                while (exists(col + DIR[dir][0] * (len + 1),
+                              row + DIR[dir][1] * (len + 1))) {
+                    len++;
+                }
+                int[] ray = new int[len];
+                long word0 = 0, word1 = 0;
+                for (int k = 0; k < len; k++) {
+                    int to = (col + DIR[dir][0] * (k + 1)) * Board.SIZE
+                        + row + DIR[dir][1] * (k + 1);
+                    ray[k] = to;
+                    DIRECTIONS[from * NUM_SQUARES + to] = (byte) dir;
+                    BETWEEN[2 * (from * NUM_SQUARES + to)] = word0;
+                    BETWEEN[2 * (from * NUM_SQUARES + to) + 1] = word1;
+                    if (to < 64) {
+                        word0 |= 1L << to;
+                    } else {
+                        word1 |= 1L << to;
+                    }
+                }
+                RAYS[from][dir] = ray;
+            }
         }
-        return row;
     }
 
     /** My index position. */
@@ -235,7 +239,4 @@ final class Square {
 
     /** My String denotation. */
     private final String _str;
-
-    /** My piece. */
-    private Piece _piece;
 }
@@ -0,0 +1,301 @@
+package amazons;
+
+import java.util.Arrays;
+
+import static amazons.Piece.*;
+
+/** A static evaluator for Amazons positions based on territory.  For each
+ *  side it computes the queen-move distance (number of queen moves) and
+ *  king-move distance (number of one-square steps) from that side's
+ *  queens to every empty square, and scores:
+ *  <ul>
+ *  <li> queen territory: empty squares nearer to one side's queens by
+ *       queen moves than to the other's, with squares at equal distance
+ *       going partly to the side to move;
+ *  <li> king territory: the same for king moves;
+ *  <li> position: for each side, the sum over empty squares of 2^-d,
+ *       where d is the queen distance, plus the same for king distance,
+ *       which rewards being close to many squares;
+ *  <li> mobility: the sum over a side's queens of the square of the
+ *       number of empty squares around each.
+ *  </ul>
+ *  Each term is the difference between white's and black's values,
+ *  multiplied by a configurable weight.  The distances are computed a
+ *  whole layer at a time, by flood fills over the board's occupancy
+ *  bitboards (see Board.emptyWord), so that no per-square queue is
+ *  needed.  The two words of a bitboard are passed around as separate
+ *  longs.  An evaluator keeps scratch state, so each search thread needs
+ *  its own.
+ *  @author Eric Huang
+ */
+final class Territory {
+
+    /** Default weight of queen territory. */
+    static final int QUEEN_WEIGHT = 2;
+    /** Default weight of king territory. */
+    static final int KING_WEIGHT = 1;
+    /** Default weight of position. */
+    static final int POSITION_WEIGHT = 1;
+    /** Default weight of mobility. */
+    static final int MOBILITY_WEIGHT = 1;
+
+    /** Distance recorded by distances for squares that cannot be
+     *  reached. */
+    static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    /** An evaluator using the default weights. */
+    Territory() {
+        this(QUEEN_WEIGHT, KING_WEIGHT, POSITION_WEIGHT, MOBILITY_WEIGHT);
+    }
+
+    /** An evaluator using weights QUEEN, KING, POSITION and MOBILITY for
+     *  the terms described above. */
+    Territory(int queen, int king, int position, int mobility) {
+        _queenWeight = queen;
+        _kingWeight = king;
+        _positionWeight = position;
+        _mobilityWeight = mobility;
+    }
+
+    /** An evaluator with the same weights as MODEL. */
+    Territory(Territory model) {
+        this(model._queenWeight, model._kingWeight, model._positionWeight,
+             model._mobilityWeight);
+    }
+
+    /** Return the value of BOARD, positive if it favors white and negative
+     *  if it favors black.  Does not consider whether the game is
+     *  over. */
+    int score(Board board) {
+        int tempo = board.turn() == WHITE ? 1 : -1;
+        int score = 0;
+        if (_queenWeight != 0 || _positionWeight != 0) {
+            fill(board, true);
+            score += _queenWeight
+                * (TERRITORY_UNIT * _territory + tempo * _ties);
+            score += _positionWeight * _position;
+        }
+        if (_kingWeight != 0 || _positionWeight != 0) {
+            fill(board, false);
+            score += _kingWeight
+                * (TERRITORY_UNIT * _territory + tempo * _ties);
+            score += _positionWeight * _position;
+        }
+        if (_mobilityWeight != 0) {
+            score += _mobilityWeight * (mobility(board, WHITE)
+                                        - mobility(board, BLACK));
+        }
+        return score;
+    }
+
+    /** Set DIST[K] to the distance of the square with index K from the
+     *  nearest of SIDE's queens on BOARD, counted in queen moves if QUEEN,
+     *  and otherwise in king moves, over empty squares.  Queens' own
+     *  squares have distance 0, and squares that cannot be reached,
+     *  UNREACHABLE. */
+    void distances(Board board, Piece side, boolean queen, int[] dist) {
+        Arrays.fill(dist, 0, Board.SIZE * Board.SIZE, UNREACHABLE);
+        long empty0 = board.emptyWord(0), empty1 = board.emptyWord(1);
+        long front0 = board.queenWord(side, 0),
+            front1 = board.queenWord(side, 1);
+        long seen0 = front0, seen1 = front1;
+        for (int d = 0; (front0 | front1) != 0; d++) {
+            for (long b = front0; b != 0; b &= b - 1) {
+                dist[Long.numberOfTrailingZeros(b)] = d;
+            }
+            for (long b = front1; b != 0; b &= b - 1) {
+                dist[64 + Long.numberOfTrailingZeros(b)] = d;
+            }
+            step(front0, front1, empty0, empty1, queen);
+            front0 = _next0 & ~seen0;
+            front1 = _next1 & ~seen1;
+            seen0 |= front0;
+            seen1 |= front1;
+        }
+    }
+
+    /** Flood outward from both sides' queens on BOARD at once, one
+     *  distance (in queen moves if QUEEN, and otherwise king moves) at a
+     *  time, and set _territory to the number of empty squares nearer to
+     *  white than black, less the number nearer to black, _ties to the
+     *  number reached by both at the same distance, and _position to the
+     *  difference of the sides' sums of POSITION_UNIT * 2^-distance. */
+    private void fill(Board board, boolean queen) {
+        long empty0 = board.emptyWord(0), empty1 = board.emptyWord(1);
+        long white0 = board.queenWord(WHITE, 0),
+            white1 = board.queenWord(WHITE, 1),
+            black0 = board.queenWord(BLACK, 0),
+            black1 = board.queenWord(BLACK, 1);
+        long whiteSeen0 = white0, whiteSeen1 = white1,
+            blackSeen0 = black0, blackSeen1 = black1;
+        int territory = 0, ties = 0, position = 0;
+        for (int d = 1; (white0 | white1 | black0 | black1) != 0; d++) {
+            step(white0, white1, empty0, empty1, queen);
+            white0 = _next0 & ~whiteSeen0;
+            white1 = _next1 & ~whiteSeen1;
+            step(black0, black1, empty0, empty1, queen);
+            black0 = _next0 & ~blackSeen0;
+            black1 = _next1 & ~blackSeen1;
+            whiteSeen0 |= white0;
+            whiteSeen1 |= white1;
+            blackSeen0 |= black0;
+            blackSeen1 |= black1;
+            territory += Long.bitCount(white0 & ~blackSeen0)
+                + Long.bitCount(white1 & ~blackSeen1)
+                - Long.bitCount(black0 & ~whiteSeen0)
+                - Long.bitCount(black1 & ~whiteSeen1);
+            ties += Long.bitCount(white0 & black0)
+                + Long.bitCount(white1 & black1);
+            if (d < POSITION_BITS) {
+                position += (Long.bitCount(white0) + Long.bitCount(white1)
+                             - Long.bitCount(black0) - Long.bitCount(black1))
+                    << (POSITION_BITS - d);
+            }
+        }
+        _territory = territory;
+        _ties = ties;
+        _position = position;
+    }
+
+    /** Set _next0 and _next1 to the set of squares in EMPTY0 and EMPTY1
+     *  (words 0 and 1 of a bitboard) reachable from some square in FROM0
+     *  and FROM1 by one queen move, if QUEEN, or else by one king move,
+     *  through squares in EMPTY0 and EMPTY1. */
+    private void step(long from0, long from1, long empty0, long empty1,
+                      boolean queen) {
+        if (!queen) {
+            long up0 = from0 | (from0 << 1) & NOT_ROW0_0
+                | ((from0 >>> 1) | (from1 << 63)) & NOT_ROW9_0;
+            long up1 = from1 | ((from1 << 1) | (from0 >>> 63)) & NOT_ROW0_1
+                | (from1 >>> 1) & NOT_ROW9_1;
+            _next0 = (up0 | (up0 << 10) | (up0 >>> 10) | (up1 << 54))
+                & empty0;
+            _next1 = (up1 | (up1 << 10) | (up0 >>> 54) | (up1 >>> 10))
+                & empty1;
+            return;
+        }
+        _next0 = _next1 = 0;
+        slideUp(from0, from1, MASK0[0] & empty0, MASK1[0] & empty1, 1);
+        slideUp(from0, from1, MASK0[1] & empty0, MASK1[1] & empty1, 11);
+        slideUp(from0, from1, MASK0[2] & empty0, MASK1[2] & empty1, 10);
+        slideUp(from0, from1, MASK0[3] & empty0, MASK1[3] & empty1, 9);
+        slideDown(from0, from1, MASK0[4] & empty0, MASK1[4] & empty1, 1);
+        slideDown(from0, from1, MASK0[5] & empty0, MASK1[5] & empty1, 11);
+        slideDown(from0, from1, MASK0[6] & empty0, MASK1[6] & empty1, 10);
+        slideDown(from0, from1, MASK0[7] & empty0, MASK1[7] & empty1, 9);
+    }
+
+    /** Add to _next0 and _next1 the squares in MASK0 and MASK1 reachable
+     *  from FROM0 and FROM1 by repeatedly adding SHIFT to the square index
+     *  while staying within MASK0 and MASK1. */
+    private void slideUp(long from0, long from1, long mask0, long mask1,
+                         int shift) {
+        long g0 = from0, g1 = from1, next0 = 0, next1 = 0;
+        while (true) {
+            g1 = ((g1 << shift) | (g0 >>> (64 - shift))) & mask1;
+            g0 = (g0 << shift) & mask0;
+            if ((g0 | g1) == 0) {
+                break;
+            }
+            next0 |= g0;
+            next1 |= g1;
+        }
+        _next0 |= next0;
+        _next1 |= next1;
+    }
+
+    /** Add to _next0 and _next1 the squares in MASK0 and MASK1 reachable
+     *  from FROM0 and FROM1 by repeatedly subtracting SHIFT from the square
+     *  index while staying within MASK0 and MASK1. */
+    private void slideDown(long from0, long from1, long mask0, long mask1,
+                           int shift) {
+        long g0 = from0, g1 = from1, next0 = 0, next1 = 0;
+        while (true) {
+            g0 = ((g0 >>> shift) | (g1 << (64 - shift))) & mask0;
+            g1 = (g1 >>> shift) & mask1;
+            if ((g0 | g1) == 0) {
+                break;
+            }
+            next0 |= g0;
+            next1 |= g1;
+        }
+        _next0 |= next0;
+        _next1 |= next1;
+    }
+
+    /** Return the sum over SIDE's queens on BOARD of the square of the
+     *  number of empty squares around each. */
+    private int mobility(Board board, Piece side) {
+        long empty0 = board.emptyWord(0), empty1 = board.emptyWord(1);
+        int total = 0;
+        for (long q = board.queenWord(side, 0); q != 0; q &= q - 1) {
+            step(q & -q, 0, empty0, empty1, false);
+            int free = Long.bitCount(_next0) + Long.bitCount(_next1);
+            total += free * free;
+        }
+        for (long q = board.queenWord(side, 1); q != 0; q &= q - 1) {
+            step(0, q & -q, empty0, empty1, false);
+            int free = Long.bitCount(_next0) + Long.bitCount(_next1);
+            total += free * free;
+        }
+        return total;
+    }
+
+    /** Value of one square of territory, in the units of the score.
+     *  Squares reached by both sides at the same distance are worth one
+     *  unit to the side to move. */
+    private static final int TERRITORY_UNIT = 4;
+
+    /** Distances below this contribute to position: a square at distance
+     *  D is worth 2^(POSITION_BITS - D) units. */
+    private static final int POSITION_BITS = 4;
+
+    /** Change of square index for a step in each of the eight directions
+     *  (an index is 10 * column + row), those toward higher indices
+     *  first. */
+    private static final int[] SHIFTS = { 1, 11, 10, 9, -1, -11, -10, -9 };
+
+    /** MASK0[D] and MASK1[D] are words 0 and 1 of the set of squares that
+     *  may be entered by a step in direction D: those that are on the
+     *  board and are not entered by wrapping around from the opposite
+     *  edge. */
+    private static final long[] MASK0 = new long[SHIFTS.length],
+        MASK1 = new long[SHIFTS.length];
+
+    static {
+        for (int dir = 0; dir < SHIFTS.length; dir++) {
+            int dRow = Math.floorMod(SHIFTS[dir] + 1, Board.SIZE) - 1;
+            for (int i = 0; i < Board.SIZE * Board.SIZE; i++) {
+                int row = i % Board.SIZE;
+                if (dRow == 1 && row == 0
+                    || dRow == -1 && row == Board.SIZE - 1) {
+                    continue;
+                }
+                if (i < 64) {
+                    MASK0[dir] |= 1L << i;
+                } else {
+                    MASK1[dir] |= 1L << i;
+                }
+            }
+        }
+    }
+
+    /** Words 0 and 1 of the set of squares not in row 0 (entered by steps
+     *  toward higher rows) and not in row 9. */
+    private static final long NOT_ROW0_0 = MASK0[0], NOT_ROW0_1 = MASK1[0],
+        NOT_ROW9_0 = MASK0[4], NOT_ROW9_1 = MASK1[4];
+
+    /** Weight of queen territory. */
+    private final int _queenWeight;
+    /** Weight of king territory. */
+    private final int _kingWeight;
+    /** Weight of position. */
+    private final int _positionWeight;
+    /** Weight of mobility. */
+    private final int _mobilityWeight;
+
+    /** Results of fill. */
+    private int _territory, _ties, _position;
+    /** Result of step. */
+    private long _next0, _next1;
+}
@@ -0,0 +1,324 @@
+package amazons;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static amazons.Piece.*;
+import static amazons.Utils.*;
+
+/** A match of many games between two player configurations, played
+ *  concurrently within one JVM, each game on its own Controller and
+ *  Board.  Games are played in pairs: both games of a pair start from the
+ *  same random opening (chosen with Controller.setSeed and the pair's
+ *  seed), with the configurations exchanging colors.
+ *  Usage: java amazons.Tournament [--games=N] [--threads=T] [--seed=S]
+ *         [--plies=K] [--movetime=MS] [--gametime=MS] [--first=SPEC]
+ *         [--second=SPEC]
+ *  plays N games (default 100) on T threads (default the number of
+ *  processors), from openings of K random moves (default 4), with the
+ *  given time limits in milliseconds (default 100 per move and none per
+ *  game), and prints the results.  Each SPEC is a comma-separated list of
+ *  settings for one configuration: mcts (to play by Monte Carlo tree
+ *  search instead of alpha-beta search), hash=MB, threads=N, and
+ *  weights=Q:K:P:M (the Territory weights, for alpha-beta only).
+ *  @author Eric Huang
+ */
+class Tournament {
+
+    /** A tournament between configurations FIRST and SECOND, which are
+     *  templates for the players (see Player.create). */
+    Tournament(Player first, Player second) {
+        _players = new Player[] { first, second };
+        _games = DEFAULT_GAMES;
+        _threads = Runtime.getRuntime().availableProcessors();
+        _plies = DEFAULT_PLIES;
+        _moveTime = DEFAULT_MOVE_TIME;
+    }
+
+    /** Play GAMES games (rounded up to an even number). */
+    void setGames(int games) {
+        _games = games + games % 2;
+    }
+
+    /** Play THREADS games at once. */
+    void setThreads(int threads) {
+        _threads = threads;
+    }
+
+    /** Use SEED as the seed of the first pair of games; later pairs use
+     *  SEED + 1, SEED + 2, .... */
+    void setSeed(long seed) {
+        _seed = seed;
+    }
+
+    /** Start games from openings of PLIES random moves. */
+    void setPlies(int plies) {
+        _plies = plies;
+    }
+
+    /** Limit each move to MOVEMILLIS milliseconds and each side's moves in
+     *  a game to GAMEMILLIS milliseconds (0 for no limit). */
+    void setTimeLimits(long moveMillis, long gameMillis) {
+        _moveTime = moveMillis;
+        _gameTime = gameMillis;
+    }
+
+    /** The outcome of one game, from the point of view of the two
+     *  configurations (index 0 for the first and 1 for the second). */
+    static class Result {
+        /** Index of the winning configuration. */
+        int winner;
+        /** Moves made by each configuration. */
+        final long[] moves = new long[2];
+        /** Milliseconds used by each configuration. */
+        final long[] millis = new long[2];
+        /** Positions searched by each configuration (see
+         *  Player.totalNodeCount). */
+        final long[] nodes = new long[2];
+    }
+
+    /** Play the tournament, returning the result of each game, in
+     *  order. */
+    List<Result> play() {
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        try {
+            ArrayList<Callable<Result>> games = new ArrayList<>();
+            for (int g = 0; g < _games; g++) {
+                int game = g;
+                games.add(() -> playGame(game));
+            }
+            ArrayList<Result> results = new ArrayList<>();
+            for (Future<Result> result : pool.invokeAll(games)) {
+                results.add(result.get());
+            }
+            return results;
+        } catch (InterruptedException | ExecutionException excp) {
+            throw new IllegalStateException(excp);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Play game number GAME: the first configuration is white in even
+     *  games and black in odd ones. */
+    private Result playGame(int game) {
+        int white = game % 2;
+        Controller controller =
+            new Controller(new NullView(), null, new NullReporter(),
+                           _players[white], _players[1 - white]);
+        controller.setTimeLimits(_moveTime, _gameTime);
+        controller.setSeed(_seed + game / 2);
+        Player[] players = new Player[2];
+        players[white] = _players[white].create(WHITE, controller);
+        players[1 - white] = _players[1 - white].create(BLACK, controller);
+        Piece winner = controller.playGame(players[white],
+                                           players[1 - white], _plies);
+        Result result = new Result();
+        result.winner = winner == WHITE ? white : 1 - white;
+        int played = Math.max(0, controller.board().numMoves() - _plies);
+        Piece first = _plies % 2 == 0 ? WHITE : BLACK;
+        for (int i = 0; i < 2; i++) {
+            Piece side = i == white ? WHITE : BLACK;
+            result.moves[i] = side == first ? (played + 1) / 2 : played / 2;
+            result.millis[i] = controller.timeUsed(side);
+            result.nodes[i] = players[i].totalNodeCount();
+        }
+        return result;
+    }
+
+    /** Print a summary of RESULTS: each configuration's score, the Elo
+     *  difference between them with its 95% confidence interval, and each
+     *  configuration's search speed and time per move. */
+    static void report(List<Result> results) {
+        int n = results.size();
+        int wins = 0;
+        long[] moves = new long[2], millis = new long[2], nodes = new long[2];
+        for (Result result : results) {
+            if (result.winner == 0) {
+                wins += 1;
+            }
+            for (int i = 0; i < 2; i++) {
+                moves[i] += result.moves[i];
+                millis[i] += result.millis[i];
+                nodes[i] += result.nodes[i];
+            }
+        }
+        double score = (double) wins / n;
+        double margin = Z95 * Math.sqrt(score * (1 - score) / n);
+        System.out.printf("Games: %d  first: %d wins  second: %d wins"
+                          + "  (first scores %.1f%%)%n",
+                          n, wins, n - wins, 100 * score);
+        System.out.printf("Elo difference (first - second): %s"
+                          + "  95%% interval [%s, %s]%n",
+                          elo(score), elo(score - margin),
+                          elo(score + margin));
+        for (int i = 0; i < 2; i++) {
+            System.out.printf("%s: %.0f nodes/s, %.1f ms/move%n",
+                              i == 0 ? "first " : "second",
+                              nodes[i] * 1000.0 / Math.max(1, millis[i]),
+                              (double) millis[i] / Math.max(1, moves[i]));
+        }
+    }
+
+    /** Return the Elo difference corresponding to an expected score of
+     *  SCORE, formatted for printing. */
+    static String elo(double score) {
+        if (score <= 0) {
+            return "-inf";
+        } else if (score >= 1) {
+            return "+inf";
+        }
+        return String.format("%+.0f", 400 * Math.log10(score / (1 - score)));
+    }
+
+    /** Return a template player configured according to SPEC, as
+     *  described above. */
+    static Player configure(String spec) {
+        List<String> settings = spec == null || spec.isEmpty()
+            ? new ArrayList<>() : Arrays.asList(spec.split(","));
+        AI ai = null;
+        MonteCarlo mcts = null;
+        Player player;
+        if (settings.contains("mcts")) {
+            player = mcts = new MonteCarlo();
+        } else {
+            player = ai = new AI();
+        }
+        try {
+            for (String setting : settings) {
+                if (setting.equals("mcts")) {
+                    continue;
+                }
+                String[] keyValue = setting.split("=", 2);
+                if (keyValue.length != 2) {
+                    throw error("bad setting: %s", setting);
+                }
+                String value = keyValue[1];
+                switch (keyValue[0]) {
+                case "hash":
+                    long bytes = Long.parseLong(value) << 20;
+                    if (ai != null) {
+                        ai.setTableSize(bytes);
+                    } else {
+                        mcts.setTreeSize(bytes);
+                    }
+                    break;
+                case "threads":
+                    int threads = Integer.parseInt(value);
+                    if (ai != null) {
+                        ai.setThreads(threads);
+                    } else {
+                        mcts.setThreads(threads);
+                    }
+                    break;
+                case "weights":
+                    if (ai == null) {
+                        throw error("weights need alpha-beta search");
+                    }
+                    String[] w = value.split(":");
+                    if (w.length != 4) {
+                        throw error("need four weights: %s", value);
+                    }
+                    ai.setEvaluator(new Territory(Integer.parseInt(w[0]),
+                                                  Integer.parseInt(w[1]),
+                                                  Integer.parseInt(w[2]),
+                                                  Integer.parseInt(w[3])));
+                    break;
+                default:
+                    throw error("unknown setting: %s", keyValue[0]);
+                }
+            }
+        } catch (NumberFormatException excp) {
+            throw error("bad number in %s", spec);
+        }
+        return player;
+    }
+
+    /** Run the tournament described by ARGS, as above. */
+    public static void main(String... args) {
+        String first = null, second = null;
+        int games = DEFAULT_GAMES;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int plies = DEFAULT_PLIES;
+        long seed = 0, moveTime = DEFAULT_MOVE_TIME, gameTime = 0;
+        try {
+            for (String arg : args) {
+                String[] option = arg.split("=", 2);
+                if (option.length != 2) {
+                    throw error("bad option: %s", arg);
+                }
+                switch (option[0]) {
+                case "--games":
+                    games = Integer.parseInt(option[1]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(option[1]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(option[1]);
+                    break;
+                case "--plies":
+                    plies = Integer.parseInt(option[1]);
+                    break;
+                case "--movetime":
+                    moveTime = Long.parseLong(option[1]);
+                    break;
+                case "--gametime":
+                    gameTime = Long.parseLong(option[1]);
+                    break;
+                case "--first":
+                    first = option[1];
+                    break;
+                case "--second":
+                    second = option[1];
+                    break;
+                default:
+                    throw error("unknown option: %s", option[0]);
+                }
+            }
+            Tournament tournament =
+                new Tournament(configure(first), configure(second));
+            tournament.setGames(games);
+            tournament.setThreads(threads);
+            tournament.setSeed(seed);
+            tournament.setPlies(plies);
+            tournament.setTimeLimits(moveTime, gameTime);
+            report(tournament.play());
+        } catch (IllegalArgumentException excp) {
+            System.err.println(excp.getMessage());
+            System.err.println("Usage: java amazons.Tournament [--games=N]"
+                               + " [--threads=T] [--seed=S] [--plies=K]"
+                               + " [--movetime=MS] [--gametime=MS]"
+                               + " [--first=SPEC] [--second=SPEC]");
+            System.exit(1);
+        }
+    }
+
+    /** Default number of games. */
+    private static final int DEFAULT_GAMES = 100;
+    /** Default number of random moves in an opening. */
+    private static final int DEFAULT_PLIES = 4;
+    /** Default time limit per move in milliseconds. */
+    private static final long DEFAULT_MOVE_TIME = 100;
+    /** Number of standard deviations in a 95% confidence interval. */
+    private static final double Z95 = 1.96;
+
+    /** Templates for the two configurations. */
+    private final Player[] _players;
+    /** Number of games to play. */
+    private int _games;
+    /** Number of games played at once. */
+    private int _threads;
+    /** Seed of the first pair of games. */
+    private long _seed;
+    /** Number of random moves in each opening. */
+    private int _plies;
+    /** Time limits in milliseconds per move and per side per game. */
+    private long _moveTime, _gameTime;
+}
@@ -0,0 +1,179 @@
+package amazons;
+
+/** A fixed-size cache of search results, indexed by the Zobrist key of
+ *  the position searched (see Board.hash), that any number of search
+ *  threads may probe and store into at once without locking.
+ *
+ *  Each entry is two longs in one flat array: the entry's data (depth,
+ *  score, bound type, best move, and age, packed as described at DATA
+ *  below) and its key XORed with its data.  Two threads storing into
+ *  the same slot at once may leave one's key word beside the other's
+ *  data word, but then the XOR of the two words is not the key of
+ *  either, so probe rejects the entry as missing instead of returning
+ *  another position's move.  (The same goes for the halves of a long
+ *  written non-atomically.)
+ *
+ *  The number of slots is a power of two; each key may occupy either of
+ *  the two slots of its bucket.  When both are taken by other positions,
+ *  the entry with the least depth, counting entries from earlier searches
+ *  as shallower, is replaced.
+ *  @author Eric Huang
+ */
+class TranspositionTable {
+
+    /** Bound type of a score that is the exact value of its position. */
+    static final int EXACT = 0;
+    /** Bound type of a score that is at most the value of its position
+     *  (the search failed high). */
+    static final int LOWER = 1;
+    /** Bound type of a score that is at least the value of its position
+     *  (the search failed low). */
+    static final int UPPER = 2;
+
+    /** The value returned by probe for a key with no entry. */
+    static final long MISSING = 0;
+
+    /** Number of bytes used by one entry. */
+    static final int ENTRY_BYTES = 2 * 8;
+
+    /** Depth penalty per search of age when choosing an entry to
+     *  replace. */
+    private static final int AGE_PENALTY = 4;
+
+    /* The layout of an entry's data, from the low bits up: the score (32
+     * bits), the best move (21 bits, all ones for none), the depth plus 1
+     * (7 bits, so that data with depth 0 is MISSING), the bound type (2
+     * bits), and the number of the search that stored it modulo 4 (2
+     * bits). */
+
+    /** Position of the move in an entry's data. */
+    private static final int MOVE_SHIFT = 32;
+    /** Mask for the move, after shifting. */
+    private static final int MOVE_MASK = (1 << 21) - 1;
+    /** Position of the depth in an entry's data. */
+    private static final int DEPTH_SHIFT = 53;
+    /** Mask for the depth, after shifting. */
+    private static final int DEPTH_MASK = (1 << 7) - 1;
+    /** Position of the bound type in an entry's data. */
+    private static final int BOUND_SHIFT = 60;
+    /** Position of the age in an entry's data. */
+    private static final int AGE_SHIFT = 62;
+    /** Mask for the bound type or age, after shifting. */
+    private static final int FIELD_MASK = 3;
+
+    /** A table using at most BYTES bytes (and at least two entries). */
+    TranspositionTable(long bytes) {
+        int size = 2;
+        while ((long) size * 2 * ENTRY_BYTES <= bytes && size < (1 << 29)) {
+            size *= 2;
+        }
+        _entries = new long[2 * size];
+        _mask = size - 1;
+    }
+
+    /** Return the number of entries in this table. */
+    int size() {
+        return _entries.length / 2;
+    }
+
+    /** Remove all entries.  Not to be called during a search. */
+    void clear() {
+        java.util.Arrays.fill(_entries, 0);
+        _age = 0;
+    }
+
+    /** Start a new search, so that entries from previous searches become
+     *  preferred candidates for replacement.  Not to be called during a
+     *  search. */
+    void newSearch() {
+        _age = (_age + 1) & FIELD_MASK;
+    }
+
+    /** Return the data of the entry for KEY, to be unpacked with depth,
+     *  score, bound, and move, or MISSING if there is none. */
+    long probe(long key) {
+        int slot = 2 * ((int) key & _mask & ~1);
+        long data = _entries[slot + 1];
+        if ((_entries[slot] ^ data) == key && data != MISSING) {
+            return data;
+        }
+        data = _entries[slot + 3];
+        if ((_entries[slot + 2] ^ data) == key && data != MISSING) {
+            return data;
+        }
+        return MISSING;
+    }
+
+    /** Return the search depth of the entry with DATA. */
+    static int depth(long data) {
+        return ((int) (data >>> DEPTH_SHIFT) & DEPTH_MASK) - 1;
+    }
+
+    /** Return the score of the entry with DATA. */
+    static int score(long data) {
+        return (int) data;
+    }
+
+    /** Return the bound type (EXACT, LOWER, or UPPER) of the entry with
+     *  DATA. */
+    static int bound(long data) {
+        return (int) (data >>> BOUND_SHIFT) & FIELD_MASK;
+    }
+
+    /** Return the packed best move of the entry with DATA, or -1 if it
+     *  has none. */
+    static int move(long data) {
+        int move = (int) (data >>> MOVE_SHIFT) & MOVE_MASK;
+        return move == MOVE_MASK ? -1 : move;
+    }
+
+    /** Record that a search of DEPTH levels from the position with KEY
+     *  gave SCORE, of bound type BOUND, with best move MOVE (-1 for
+     *  none).  DEPTH is less than 127. */
+    void store(long key, int depth, int score, int bound, int move) {
+        int slot = 2 * ((int) key & _mask & ~1);
+        long data0 = _entries[slot + 1], data1 = _entries[slot + 3];
+        boolean mine0 = (_entries[slot] ^ data0) == key,
+            mine1 = (_entries[slot + 2] ^ data1) == key;
+        long old = data0;
+        if (mine1 || !mine0 && priority(data1) < priority(data0)) {
+            slot += 2;
+            old = data1;
+        }
+        if ((mine0 || mine1) && old != MISSING && age(old) == _age
+            && depth(old) > depth && bound != EXACT) {
+            return;
+        }
+        long data = (score & 0xffffffffL)
+            | (long) (move & MOVE_MASK) << MOVE_SHIFT
+            | (long) (depth + 1) << DEPTH_SHIFT
+            | (long) bound << BOUND_SHIFT
+            | (long) _age << AGE_SHIFT;
+        _entries[slot] = key ^ data;
+        _entries[slot + 1] = data;
+    }
+
+    /** Return the number of the search that stored the entry with DATA,
+     *  modulo 4. */
+    private static int age(long data) {
+        return (int) (data >>> AGE_SHIFT) & FIELD_MASK;
+    }
+
+    /** Return the value of keeping the entry with DATA: its depth, less a
+     *  penalty for each search since it was stored.  Empty slots have the
+     *  least value. */
+    private int priority(long data) {
+        if (data == MISSING) {
+            return Integer.MIN_VALUE;
+        }
+        return depth(data) - AGE_PENALTY * ((_age - age(data)) & FIELD_MASK);
+    }
+
+    /** The entries: at 2 * I, the key of slot I XORed with its data; at
+     *  2 * I + 1, its data. */
+    private final long[] _entries;
+    /** Mask selecting a slot from a key. */
+    private final int _mask;
+    /** Number of the current search, modulo 4. */
+    private int _age;
+}
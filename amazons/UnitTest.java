@@ -43,6 +43,22 @@ public class UnitTest {
         assertTrue(Square.sq(7, 9).isQueenMove(Square.sq(0, 2)));
     }
 
+    /** Tests packing and unpacking of move codes. */
+    @Test
+    public void testMoveCodes() {
+        Move m = Move.mv("d1-d7(g7)");
+        int code = Move.code(Square.sq("d1").index(), Square.sq("d7").index(),
+                             Square.sq("g7").index());
+        assertEquals(code, m.code());
+        assertEquals(Square.sq("d7").index(), Move.to(code));
+        assertEquals("d1-d7(g7)", Move.toString(code));
+        assertSame(m, Move.mv(code));
+        Board b = new Board();
+        b.makeMove(m);
+        assertEquals(code, b.move(0));
+        assertSame(m, b.moves().get(0));
+    }
+
     /** Tests toString for initial board state and a smiling board state. :) */
     @Test
     public void testToString() {
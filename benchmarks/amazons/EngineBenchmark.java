@@ -0,0 +1,183 @@
+package amazons;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** JMH benchmarks of the engine's inner operations, each measured on an
+ *  opening, a middlegame and an endgame position.  The positions are
+ *  reached by fixed numbers of random moves from a fixed seed, so they
+ *  are the same on every run.
+ *  @author Eric Huang
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineBenchmark {
+
+    /** Seed for the random moves that reach the measured positions. */
+    private static final long SEED = 61;
+
+    /** The position measured: opening, middlegame or endgame. */
+    @Param({ "opening", "middlegame", "endgame" })
+    public String phase;
+
+    /** Depth of the searches measured by findMove. */
+    @Param({ "2" })
+    public int depth;
+
+    /** Set up the position for PHASE and the moves from it. */
+    @Setup(Level.Trial)
+    public void setUp() {
+        int plies;
+        switch (phase) {
+        case "opening":
+            plies = 0;
+            break;
+        case "middlegame":
+            plies = 30;
+            break;
+        default:
+            plies = 60;
+            break;
+        }
+        _board = SearchScaling.randomPosition(new Random(SEED), plies);
+        _codes = new int[Board.MAX_MOVES];
+        _count = _board.generateMoves(_board.turn(), _codes);
+        _moves = new ArrayList<>();
+        for (int i = 0; i < _count; i++) {
+            _moves.add(Move.mv(_codes[i]));
+        }
+        _territory = new Territory();
+        _next = 0;
+    }
+
+    /** A fresh AI for each search, so that no search is helped by the
+     *  transposition table of the one before. */
+    @State(Scope.Thread)
+    public static class Searcher {
+
+        /** Create the AI. */
+        @Setup(Level.Invocation)
+        public void setUp() {
+            ai = new AI();
+            ai.setTableSize(AI_TABLE_BYTES);
+        }
+
+        /** The AI used by findMove. */
+        AI ai;
+    }
+
+    /** Enumerate all legal moves with Board.legalMoves, consuming each
+     *  into BH. */
+    @Benchmark
+    public void legalMoves(Blackhole bh) {
+        for (Iterator<Move> moves = _board.legalMoves(); moves.hasNext();) {
+            bh.consume(moves.next());
+        }
+    }
+
+    /** Generate all legal moves with Board.generateMoves, consuming their
+     *  number and codes into BH. */
+    @Benchmark
+    public void generateMoves(Blackhole bh) {
+        bh.consume(_board.generateMoves(_board.turn(), _codes));
+        bh.consume(_codes);
+    }
+
+    /** Count the legal moves with Board.countLegalMoves, without
+     *  generating them, consuming the count into BH. */
+    @Benchmark
+    public void countLegalMoves(Blackhole bh) {
+        bh.consume(_board.countLegalMoves(_board.turn()));
+    }
+
+    /** Decide whether the side not to move has a legal move, as
+     *  makeMove does to detect the end of the game. */
+    @Benchmark
+    public boolean hasMove() {
+        return _board.hasMove(_board.turn().opponent());
+    }
+
+    /** Decide the same as hasMove by starting Board.legalMoves, as
+     *  makeMove used to. */
+    @Benchmark
+    public boolean hasMoveByIterator() {
+        return _board.legalMoves(_board.turn().opponent()).hasNext();
+    }
+
+    /** Make the next legal move in turn and undo it. */
+    @Benchmark
+    public long makeUndo() {
+        _board.makeMove(_codes[_next]);
+        long hash = _board.hash();
+        _board.undo();
+        _next = _next + 1 == _count ? 0 : _next + 1;
+        return hash;
+    }
+
+    /** Evaluate the position statically. */
+    @Benchmark
+    public int staticScore() {
+        return AI.staticScore(_board, _territory);
+    }
+
+    /** Score the position with the territory evaluator alone, consuming
+     *  the score into BH. */
+    @Benchmark
+    public void territoryScore(Blackhole bh) {
+        bh.consume(_territory.score(_board));
+    }
+
+    /** Check the legality of the next legal move in turn. */
+    @Benchmark
+    public boolean isLegal() {
+        boolean legal = _board.isLegal(_moves.get(_next));
+        _next = _next + 1 == _count ? 0 : _next + 1;
+        return legal;
+    }
+
+    /** Search the position to a fixed depth with the AI from
+     *  SEARCHER. */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 10)
+    public int findMove(Searcher searcher) {
+        return searcher.ai.findMove(_board, depth, AI.NO_LIMIT);
+    }
+
+    /** Transposition table size of the AI used by findMove. */
+    private static final long AI_TABLE_BYTES = 4L << 20;
+
+    /** The position measured. */
+    private Board _board;
+    /** The legal moves from _board, as packed codes. */
+    private int[] _codes;
+    /** The legal moves from _board. */
+    private ArrayList<Move> _moves;
+    /** Number of legal moves from _board. */
+    private int _count;
+    /** Index of the next move to use from _codes or _moves. */
+    private int _next;
+    /** Evaluator used by staticScore and territoryScore. */
+    private Territory _territory;
+}